@@ -22,10 +22,33 @@ public enum HakbotConfigKey implements Config.Key {
 
     MAX_QUEUE_SIZE            ("hakbot.max.queue.size",             100),
     QUEUE_CHECK_INTERVAL      ("hakbot.queue.check.interval",       30),
+    QUEUE_RECONCILE_INTERVAL  ("hakbot.queue.reconcile.interval",   300),
+    PROGRESS_CHECK_INITIAL_INTERVAL ("hakbot.progress.check.initial.interval", 30),
+    PROGRESS_CHECK_MAX_INTERVAL     ("hakbot.progress.check.max.interval",     900),
     JOB_PRUNE_CHECK_INTERVAL  ("hakbot.job.prune.check.interval",   1),
     JOB_PRUNE_INTERVAL        ("hakbot.job.prune.interval",         14),
+    ARTIFACT_INLINE_THRESHOLD ("hakbot.artifact.inline.threshold",  65536),
+    PERMISSION_CACHE_TTL      ("hakbot.permission.cache.ttl",       60),
+    JOB_UPDATE_BATCH_SIZE     ("hakbot.job.update.batch.size",      100),
+    JOB_PAGE_SIZE             ("hakbot.job.page.size",              100),
+    JOB_PAGE_MAX_SIZE         ("hakbot.job.page.max.size",          1000),
+    ORBIT_LEASE_DURATION      ("hakbot.orbit.lease.duration",       300),
+    ORBIT_CLAIM_MAX_WAIT      ("hakbot.orbit.claim.max.wait",       30),
+    ORBIT_PROVIDERS           ("hakbot.orbit.providers",            null),
+    PROCESS_WORKER_THREADS    ("hakbot.worker.process.threads",     4),
+    PROCESS_WORKER_QUEUE_SIZE ("hakbot.worker.process.queue.size",  1000),
+    PROGRESS_WORKER_THREADS   ("hakbot.worker.progress.threads",    4),
+    PROGRESS_WORKER_QUEUE_SIZE("hakbot.worker.progress.queue.size", 1000),
+    PUBLISH_WORKER_THREADS    ("hakbot.worker.publish.threads",     2),
+    PUBLISH_WORKER_QUEUE_SIZE ("hakbot.worker.publish.queue.size",  1000),
+    UPDATE_WORKER_THREADS     ("hakbot.worker.update.threads",      1),
+    UPDATE_WORKER_QUEUE_SIZE  ("hakbot.worker.update.queue.size",   10000),
     PROVIDERS_ENABLED         ("hakbot.providers.enabled",          null),
-    PUBLISHERS_ENABLED        ("hakbot.publishers.enabled",         null);
+    PUBLISHERS_ENABLED        ("hakbot.publishers.enabled",         null),
+    PUBLISHER_SPOOL_TO_FILE   ("hakbot.publisher.spool.to.file",    false),
+    PUBLISHER_MAX_CONNECTIONS ("hakbot.publisher.max.connections",  4),
+    PUBLISHER_CONNECT_TIMEOUT ("hakbot.publisher.connect.timeout",  30),
+    PUBLISHER_READ_TIMEOUT    ("hakbot.publisher.read.timeout",     300);
 
 
     private String propertyName;
@@ -16,15 +16,21 @@
  */
 package io.hakbot.controller.event;
 
+import alpine.Config;
 import alpine.event.LdapSyncEvent;
 import alpine.event.framework.EventService;
 import alpine.tasks.LdapSyncTask;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.controller.plugin.PluginRegistry;
 import io.hakbot.controller.tasks.TaskScheduler;
+import io.hakbot.controller.workers.JobArrivalMonitor;
 import io.hakbot.controller.workers.JobManager;
 import io.hakbot.controller.workers.JobProcessWorker;
 import io.hakbot.controller.workers.JobProgressCheckWorker;
 import io.hakbot.controller.workers.JobPublishWorker;
 import io.hakbot.controller.workers.JobUpdateLogger;
+import io.hakbot.controller.workers.JobUpdateWriter;
+import io.hakbot.publishers.PublisherClientPool;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
@@ -34,13 +40,35 @@ public class EventSubsystemInitializer implements ServletContextListener {
     private static final EventService EVENT_SERVICE = EventService.getInstance();
 
     public void contextInitialized(ServletContextEvent event) {
-        EVENT_SERVICE.subscribe(JobProcessEvent.class, JobProcessWorker.class);
-        EVENT_SERVICE.subscribe(JobProgressCheckEvent.class, JobProgressCheckWorker.class);
-        EVENT_SERVICE.subscribe(JobPublishEvent.class, JobPublishWorker.class);
-        EVENT_SERVICE.subscribe(JobUpdateEvent.class, JobUpdateLogger.class);
+        // Resolves all enabled plugins before any job is processed
+        PluginRegistry.getInstance();
+
+        // Job events are processed by dedicated executors. State updates are latency-critical and
+        // are handed to the JobUpdateWriter at the highest priority, while I/O-heavy scans and
+        // uploads run at a lower priority. Executors are drained in the reverse order of their
+        // registration on shutdown, so JobUpdateEvents are registered first.
+        final Config config = Config.getInstance();
+        JobEventDispatcher.register(JobUpdateEvent.class, new JobUpdateLogger(), "Hakbot-JobUpdate",
+                config.getPropertyAsInt(HakbotConfigKey.UPDATE_WORKER_THREADS),
+                config.getPropertyAsInt(HakbotConfigKey.UPDATE_WORKER_QUEUE_SIZE), Thread.NORM_PRIORITY + 2);
+        JobEventDispatcher.register(JobProgressCheckEvent.class, new JobProgressCheckWorker(), "Hakbot-JobProgressCheck",
+                config.getPropertyAsInt(HakbotConfigKey.PROGRESS_WORKER_THREADS),
+                config.getPropertyAsInt(HakbotConfigKey.PROGRESS_WORKER_QUEUE_SIZE), Thread.NORM_PRIORITY + 1);
+        JobEventDispatcher.register(JobProcessEvent.class, new JobProcessWorker(), "Hakbot-JobProcess",
+                config.getPropertyAsInt(HakbotConfigKey.PROCESS_WORKER_THREADS),
+                config.getPropertyAsInt(HakbotConfigKey.PROCESS_WORKER_QUEUE_SIZE), Thread.NORM_PRIORITY);
+        JobEventDispatcher.register(JobPublishEvent.class, new JobPublishWorker(), "Hakbot-JobPublish",
+                config.getPropertyAsInt(HakbotConfigKey.PUBLISH_WORKER_THREADS),
+                config.getPropertyAsInt(HakbotConfigKey.PUBLISH_WORKER_QUEUE_SIZE), Thread.NORM_PRIORITY - 1);
+
+        EVENT_SERVICE.subscribe(JobUpdateEvent.class, JobEventDispatcher.class);
+        EVENT_SERVICE.subscribe(JobProgressCheckEvent.class, JobEventDispatcher.class);
+        EVENT_SERVICE.subscribe(JobProcessEvent.class, JobEventDispatcher.class);
+        EVENT_SERVICE.subscribe(JobPublishEvent.class, JobEventDispatcher.class);
         EVENT_SERVICE.subscribe(LdapSyncEvent.class, LdapSyncTask.class);
 
-        // Starts the JobManager and TaskScheduler
+        // Starts the JobUpdateWriter, JobManager and TaskScheduler
+        JobUpdateWriter.getInstance();
         JobManager.getInstance();
         TaskScheduler.getInstance();
     }
@@ -48,13 +76,17 @@ public class EventSubsystemInitializer implements ServletContextListener {
     public void contextDestroyed(ServletContextEvent event) {
         JobManager.getInstance().shutdown();
         TaskScheduler.getInstance().shutdown();
+        JobArrivalMonitor.getInstance().shutdown();
+
+        // Processes the job events already queued, including the updates they publish,
+        // before the JobUpdateWriter writes the remaining updates and stops.
+        JobEventDispatcher.shutdown();
 
-        EVENT_SERVICE.unsubscribe(JobProcessWorker.class);
-        EVENT_SERVICE.unsubscribe(JobProgressCheckWorker.class);
-        EVENT_SERVICE.unsubscribe(JobPublishWorker.class);
-        EVENT_SERVICE.unsubscribe(JobUpdateLogger.class);
+        EVENT_SERVICE.unsubscribe(JobEventDispatcher.class);
         EVENT_SERVICE.unsubscribe(LdapSyncTask.class);
 
         EVENT_SERVICE.shutdown();
+        JobUpdateWriter.getInstance().shutdown();
+        PublisherClientPool.getInstance().shutdown();
     }
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.event;
+
+import alpine.event.framework.Event;
+import alpine.event.framework.Subscriber;
+import alpine.logging.Logger;
+import io.hakbot.controller.workers.JobUpdateWriter;
+import io.hakbot.controller.workers.State;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The JobEventDispatcher is a Subscriber that hands each job event over to a dedicated,
+ * bounded executor for the type of event, which then informs the worker registered for
+ * it. The shared EventService pool only performs the hand-over, so that slow uploads or
+ * scans cannot starve state updates and progress checks of threads. When the queue of
+ * an executor is full, the thread handing the event over waits for room in the queue,
+ * for up to DISPATCH_TIMEOUT seconds. Events are never processed by the thread which
+ * handed them over. If the queue is still full once the timeout expires, the event is
+ * discarded and its job is failed, rather than left waiting for an event which will
+ * never be processed.
+ */
+public class JobEventDispatcher implements Subscriber {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(JobEventDispatcher.class);
+
+    private static final long SHUTDOWN_TIMEOUT = 30;
+
+    private static final long DISPATCH_TIMEOUT = 60;
+
+    private static final Map<Class<? extends Event>, Route> ROUTES = new ConcurrentHashMap<>();
+
+    // Routes in the order they were registered
+    private static final List<Route> ORDER = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers a dedicated executor for the specified type of event. The subscriber
+     * is shared by all events of the type and must therefore be thread-safe.
+     * @param eventType the type of event
+     * @param subscriber the worker informed of events of the type
+     * @param name the name of the executor threads
+     * @param threads the number of threads
+     * @param queueSize the maximum number of events waiting to be processed
+     * @param priority the priority of the executor threads
+     */
+    public static void register(Class<? extends Event> eventType, Subscriber subscriber,
+                                String name, int threads, int queueSize, int priority) {
+        final Route route = new Route(subscriber, name, Math.max(1, threads), Math.max(1, queueSize), priority);
+        final Route previous = ROUTES.put(eventType, route);
+        if (previous != null) {
+            ORDER.remove(previous);
+            previous.shutdown();
+        }
+        ORDER.add(route);
+        LOGGER.info("Dispatching " + eventType.getSimpleName() + " to " + subscriber.getClass().getSimpleName()
+                + " using " + route.executor.getCorePoolSize() + " threads and a queue of " + queueSize);
+    }
+
+    /**
+     * Stops all executors in the reverse order of their registration. Each executor
+     * processes the events already queued before the next one is stopped, so that events
+     * published by the workers of an executor are still processed by executors registered
+     * before it. Events arriving after the executor of their type was stopped are discarded.
+     */
+    public static void shutdown() {
+        final List<Route> routes = new ArrayList<>(ORDER);
+        Collections.reverse(routes);
+        for (Route route: routes) {
+            route.shutdown();
+        }
+        ORDER.clear();
+        ROUTES.clear();
+    }
+
+    public void inform(Event e) {
+        final Route route = ROUTES.get(e.getClass());
+        if (route == null) {
+            LOGGER.warn("No executor is registered for " + e.getClass().getName());
+            return;
+        }
+        try {
+            route.executor.execute(() -> {
+                try {
+                    route.subscriber.inform(e);
+                } catch (Throwable ex) {
+                    LOGGER.error("An error occurred while processing " + e.getClass().getSimpleName() + ": " + ex.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            if (route.executor.isShutdown()) {
+                LOGGER.warn(route.name + " has been stopped. An event was discarded");
+            } else if (e instanceof BaseJobEvent) {
+                // The update is handed to the writer directly, as the executors may all be saturated
+                final String uuid = ((BaseJobEvent) e).getJobUuid();
+                LOGGER.error(ex.getMessage() + ". Failing job " + uuid);
+                JobUpdateWriter.getInstance().submit(new JobUpdateEvent(uuid).state(State.FAILED)
+                        .message("Unable to process " + e.getClass().getSimpleName() + ": " + ex.getMessage()));
+            } else {
+                LOGGER.error(ex.getMessage() + ". An event was discarded");
+            }
+        }
+    }
+
+    /**
+     * The worker and executor of a type of event.
+     */
+    private static class Route implements RejectedExecutionHandler {
+        private final Subscriber subscriber;
+        private final String name;
+        private final ThreadPoolExecutor executor;
+
+        private Route(Subscriber subscriber, String name, int threads, int queueSize, int priority) {
+            this.subscriber = subscriber;
+            this.name = name;
+            final AtomicInteger count = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), r -> {
+                        final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(priority);
+                        return thread;
+                    }, this);
+            // Tasks are put on the queue directly when it is full, so all threads must be running
+            this.executor.prestartAllCoreThreads();
+        }
+
+        /**
+         * Waits for room in the queue of the executor, for up to DISPATCH_TIMEOUT seconds.
+         * @throws RejectedExecutionException if the executor was stopped or the queue is still full
+         */
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException(name + " has been stopped");
+            }
+            LOGGER.warn(name + " queue is full. Waiting for the executor to catch up");
+            try {
+                if (!executor.getQueue().offer(r, DISPATCH_TIMEOUT, TimeUnit.SECONDS)) {
+                    throw new RejectedExecutionException(name + " queue was full for " + DISPATCH_TIMEOUT + " seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(name + " was interrupted while waiting for room in the queue");
+            }
+        }
+
+        /**
+         * Stops accepting events, processes the events already queued, and stops the threads.
+         */
+        private void shutdown() {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                    LOGGER.warn(name + " did not complete within " + SHUTDOWN_TIMEOUT + " seconds. Stopping");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
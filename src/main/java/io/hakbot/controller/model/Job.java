@@ -20,21 +20,54 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import io.hakbot.controller.workers.State;
 import javax.jdo.annotations.Column;
+import javax.jdo.annotations.FetchGroup;
+import javax.jdo.annotations.FetchGroups;
 import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.Index;
 import javax.jdo.annotations.NotPersistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
 import javax.jdo.annotations.Unique;
+import javax.jdo.annotations.Version;
+import javax.jdo.annotations.VersionStrategy;
 import java.io.Serializable;
 import java.util.Date;
 
+/**
+ * The version of a job is incremented every time the job is modified. Modifications made
+ * within optimistic transactions fail if the job was modified concurrently, which allows
+ * state transitions to be made without locking.
+ *
+ * Jobs claimed by remote workers hold a lease, which the worker renews while it processes
+ * the job. Jobs whose lease expires may be claimed by another worker.
+ */
 @PersistenceCapable
+@FetchGroups({
+        @FetchGroup(name = "message", members = {
+                @Persistent(name = "message")
+        })
+})
+@Index(name = "JOB_PROVIDER_STATE_IDX", members = {"provider", "state", "created"})
+@Version(strategy = VersionStrategy.VERSION_NUMBER, column = "VERSION")
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class Job implements Serializable {
 
     private static final long serialVersionUID = 4247510467373253623L;
 
+    public enum FetchGroup {
+        MESSAGE("message");
+
+        private String fetchGroupName;
+        FetchGroup(String fetchGroupName) {
+            this.fetchGroupName = fetchGroupName;
+        }
+
+        public String getName() {
+            return fetchGroupName;
+        }
+    }
+
     @PrimaryKey
     @Persistent(valueStrategy = IdGeneratorStrategy.INCREMENT)
     @JsonIgnore
@@ -57,7 +90,12 @@ public class Job implements Serializable {
     @Column(name = "PUBLISHER", jdbcType = "VARCHAR", length = 255)
     private String publisher;
 
-    @Persistent(defaultFetchGroup = "true")
+    /**
+     * Messages logged prior to the event log. The message is not part of the default fetch
+     * group so that loading a job does not load a potentially large CLOB. It is loaded only
+     * when requested using {@link FetchGroup#MESSAGE}.
+     */
+    @Persistent(defaultFetchGroup = "false")
     @Column(name = "MESSAGE", jdbcType = "CLOB")
     private String message;
 
@@ -84,6 +122,20 @@ public class Job implements Serializable {
     @Column(name = "STATE", jdbcType = "VARCHAR", length = 20, allowsNull = "false")
     private String state;
 
+    @Persistent
+    @Column(name = "LEASE_ID", jdbcType = "VARCHAR", length = 36)
+    @JsonIgnore
+    private String leaseId;
+
+    @Persistent
+    @Column(name = "LEASE_EXPIRES", jdbcType = "TIMESTAMP")
+    private Date leaseExpires;
+
+    @Persistent
+    @Column(name = "LEASE_OWNER", jdbcType = "VARCHAR", length = 255)
+    @JsonIgnore
+    private String leaseOwner;
+
     public long getId() {
         return id;
     }
@@ -200,4 +252,35 @@ public class Job implements Serializable {
         this.state = state.getValue();
     }
 
+    public String getLeaseId() {
+        return leaseId;
+    }
+
+    public void setLeaseId(String leaseId) {
+        this.leaseId = leaseId;
+    }
+
+    public Date getLeaseExpires() {
+        if (leaseExpires != null) {
+            return new Date(leaseExpires.getTime());
+        }
+        return null;
+    }
+
+    public void setLeaseExpires(Date leaseExpires) {
+        if (leaseExpires == null) {
+            this.leaseExpires = null;
+        } else {
+            this.leaseExpires = new Date(leaseExpires.getTime());
+        }
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
 }
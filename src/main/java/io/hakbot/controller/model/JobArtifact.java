@@ -20,13 +20,15 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import javax.jdo.annotations.Column;
 import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.Index;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
 import javax.jdo.annotations.Unique;
 import java.io.Serializable;
 
-@PersistenceCapable
+@PersistenceCapable(table = "JOBARTIFACT")
+@Index(name = "JOBARTIFACT_JOB_TYPE_IDX", members = {"jobid", "type"})
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class JobArtifact implements Serializable {
 
@@ -41,30 +43,61 @@ public class JobArtifact implements Serializable {
     }
 
     public enum MimeType {
-        BINARY("application/octet-stream"),
-        BZIP("application/x-bzip"),
-        BZIP2("application/x-bzip2"),
-        CSV("text/csv"),
-        GZIP("application/x-gzip"),
-        HTML("text/html"),
-        JSON("application/json"),
-        OBJECT("application/java-serialized-object"),
-        PDF("application/pdf"),
-        PLAIN_TEXT("text/plain"),
-        XML("application/xml"),
-        ZIP("application/zip");
+        BINARY("application/octet-stream", false),
+        BZIP("application/x-bzip", false),
+        BZIP2("application/x-bzip2", false),
+        CSV("text/csv", true),
+        GZIP("application/x-gzip", false),
+        HTML("text/html", true),
+        JSON("application/json", true),
+        OBJECT("application/java-serialized-object", false),
+        PDF("application/pdf", false),
+        PLAIN_TEXT("text/plain", true),
+        XML("application/xml", true),
+        ZIP("application/zip", false);
 
         String mimeType;
-        MimeType(String mimeType) {
+        boolean compressible;
+        MimeType(String mimeType, boolean compressible) {
             this.mimeType = mimeType;
+            this.compressible = compressible;
         }
         public String value() {
             return mimeType;
         }
+        public boolean isCompressible() {
+            return compressible;
+        }
+
+        /**
+         * Determines if contents of the specified mime type should be compressed
+         * when stored. Contents of unknown or already compressed types are not.
+         */
+        public static boolean isCompressible(String mimeType) {
+            for (MimeType type: values()) {
+                if (type.mimeType.equalsIgnoreCase(mimeType)) {
+                    return type.compressible;
+                }
+            }
+            return false;
+        }
+    }
+
+    public enum Encoding {
+        GZIP("gzip");
+
+        String encoding;
+        Encoding(String encoding) {
+            this.encoding = encoding;
+        }
+        public String value() {
+            return encoding;
+        }
     }
 
     @PrimaryKey
     @Persistent(valueStrategy = IdGeneratorStrategy.INCREMENT)
+    @Column(name = "ID")
     @JsonIgnore
     private long id;
 
@@ -91,6 +124,32 @@ public class JobArtifact implements Serializable {
     private String filename;
 
     @Persistent
+    @Column(name = "SIZE", allowsNull = "true")
+    private Long size;
+
+    /**
+     * The SHA-256 digest of contents held in the ArtifactStore. Artifacts stored
+     * inline in the database do not have a digest.
+     */
+    @Persistent
+    @Column(name = "DIGEST", jdbcType = "VARCHAR", length = 64, allowsNull = "true")
+    private String digest;
+
+    /**
+     * The encoding (compression) applied to the stored contents, or null if the
+     * contents are stored as is. The size and digest refer to the stored form.
+     */
+    @Persistent
+    @Column(name = "ENCODING", jdbcType = "VARCHAR", length = 20, allowsNull = "true")
+    private String encoding;
+
+    /**
+     * The contents are not part of the default fetch group so that querying on
+     * artifacts does not load potentially large contents into memory. Large
+     * contents should be streamed using the QueryManager instead. Contents held
+     * in the ArtifactStore are empty.
+     */
+    @Persistent(defaultFetchGroup = "false")
     @Column(name = "CONTENTS", jdbcType = "BLOB", allowsNull = "false")
     private byte[] contents;
 
@@ -146,6 +205,46 @@ public class JobArtifact implements Serializable {
         this.filename = filename;
     }
 
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Returns true if the stored contents are GZIP compressed.
+     */
+    @JsonIgnore
+    public boolean isGzipEncoded() {
+        return Encoding.GZIP.value().equals(encoding);
+    }
+
+    /**
+     * Returns true if the contents are held in the ArtifactStore rather than inline.
+     */
+    @JsonIgnore
+    public boolean isExternal() {
+        return digest != null;
+    }
+
     public byte[] getContents() {
         return contents;
     }
@@ -0,0 +1,153 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.hakbot.controller.workers.State;
+import javax.jdo.annotations.Column;
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+import javax.jdo.annotations.Unique;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A JobEvent is a single entry in the append-only log of a job. Events are numbered
+ * sequentially per job, starting at 1, so that clients can retrieve the events which
+ * occurred after the last event they have seen.
+ */
+@PersistenceCapable(table = "JOBEVENT")
+@Unique(name = "JOBEVENT_JOB_SEQUENCE_IDX", members = {"jobid", "sequence"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobEvent implements Serializable {
+
+    private static final long serialVersionUID = -2863915726387561735L;
+
+    public enum Level {
+        INFO,
+        ERROR
+    }
+
+    @PrimaryKey
+    @Persistent(valueStrategy = IdGeneratorStrategy.INCREMENT)
+    @JsonIgnore
+    private long id;
+
+    @Persistent
+    @Column(name = "JOB_ID", allowsNull = "false")
+    @JsonIgnore
+    private long jobid;
+
+    @Persistent
+    @Column(name = "SEQUENCE", allowsNull = "false")
+    private long sequence;
+
+    @Persistent
+    @Column(name = "TIMESTAMP", jdbcType = "TIMESTAMP", allowsNull = "false")
+    private Date timestamp;
+
+    @Persistent
+    @Column(name = "LEVEL", jdbcType = "VARCHAR", length = 20, allowsNull = "false")
+    private String level;
+
+    @Persistent
+    @Column(name = "FROM_STATE", jdbcType = "VARCHAR", length = 20)
+    private String fromState;
+
+    @Persistent
+    @Column(name = "TO_STATE", jdbcType = "VARCHAR", length = 20)
+    private String toState;
+
+    @Persistent
+    @Column(name = "TEXT", jdbcType = "CLOB", allowsNull = "false")
+    private String text;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getJobid() {
+        return jobid;
+    }
+
+    public void setJobid(long jobid) {
+        this.jobid = jobid;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Date getTimestamp() {
+        if (timestamp != null) {
+            return new Date(timestamp.getTime());
+        }
+        return null;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        if (timestamp == null) {
+            this.timestamp = null;
+        } else {
+            this.timestamp = new Date(timestamp.getTime());
+        }
+    }
+
+    public Level getLevel() {
+        return (level == null) ? null : Level.valueOf(level);
+    }
+
+    public void setLevel(Level level) {
+        this.level = level.name();
+    }
+
+    public State getFromState() {
+        return State.parse(fromState);
+    }
+
+    public void setFromState(State fromState) {
+        this.fromState = (fromState == null) ? null : fromState.getValue();
+    }
+
+    public State getToState() {
+        return State.parse(toState);
+    }
+
+    public void setToState(State toState) {
+        this.toState = (toState == null) ? null : toState.getValue();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+}
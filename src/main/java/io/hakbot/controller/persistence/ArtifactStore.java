@@ -0,0 +1,78 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.BooleanSupplier;
+
+/**
+ * An ArtifactStore holds the contents of artifacts which are too large to be
+ * stored inline in the database. Contents are addressed by their SHA-256 digest,
+ * therefore identical contents are only ever stored once. The JobArtifact
+ * referencing the contents holds the digest.
+ */
+public interface ArtifactStore {
+
+    /**
+     * Stores the contents, reading the stream until exhausted. The stream is not
+     * closed. If identical contents are already stored, they are not stored again.
+     * The contents are protected from deletion until {@link #release(String)} is
+     * called, which callers must do once the digest is referenced by a committed
+     * artifact, or is no longer needed.
+     * @return the hex encoded SHA-256 digest of the contents
+     */
+    String store(InputStream contents) throws IOException;
+
+    /**
+     * Releases the protection from deletion acquired when the contents were stored.
+     */
+    void release(String digest);
+
+    /**
+     * Determines if contents with the specified digest are stored.
+     */
+    boolean contains(String digest);
+
+    /**
+     * Returns the size (in bytes) of the contents with the specified digest.
+     */
+    long size(String digest) throws IOException;
+
+    /**
+     * Opens a stream to the contents with the specified digest. The stream must
+     * be closed by the caller.
+     */
+    InputStream open(String digest) throws IOException;
+
+    /**
+     * Transfers the contents with the specified digest to the target channel.
+     * @return the number of bytes transferred
+     */
+    long transferTo(String digest, WritableByteChannel target) throws IOException;
+
+    /**
+     * Deletes the contents with the specified digest if they are not referenced by
+     * any artifact. The check and the deletion are atomic with respect to stores of
+     * the same contents, so that contents stored but not yet referenced are kept.
+     * @param referenced determines if the contents are referenced by any artifact
+     * @return true if the contents were deleted
+     */
+    boolean deleteUnreferenced(String digest, BooleanSupplier referenced) throws IOException;
+
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import org.apache.commons.io.IOUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An ArtifactStore which holds contents as files in a directory. Each file is
+ * named after the SHA-256 digest of its contents and placed in a subdirectory
+ * named after the first two characters of the digest. Contents are written to a
+ * temporary file first and moved into place once the digest is known, so that
+ * partially written contents are never visible. Reads use FileChannel so that
+ * contents can be transferred to the target without being copied onto the heap.
+ *
+ * Contents are shared by all artifacts with the same digest. Stored contents are
+ * pinned until the artifact referencing them is committed. Storing, pinning and
+ * deleting contents are serialized per digest, so that contents are never deleted
+ * between being stored and being referenced.
+ */
+public class FileSystemArtifactStore implements ArtifactStore {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(FileSystemArtifactStore.class);
+
+    private static final Pattern DIGEST_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    private static final int LOCK_STRIPES = 64;
+
+    private static final FileSystemArtifactStore INSTANCE = new FileSystemArtifactStore(getDefaultDirectory());
+
+    private final Path directory;
+
+    // Serializes the operations on each digest. Digests are spread across a fixed number of locks.
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    // Holds the number of stores of each digest which are not yet referenced by a committed artifact
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    public FileSystemArtifactStore(File directory) {
+        this.directory = directory.toPath();
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the store located in the artifacts directory of the data directory.
+     */
+    public static FileSystemArtifactStore getInstance() {
+        return INSTANCE;
+    }
+
+    public String store(InputStream contents) throws IOException {
+        Files.createDirectories(directory);
+        final Path temp = Files.createTempFile(directory, "artifact-", ".tmp");
+        try {
+            final MessageDigest md = newMessageDigest();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), md)) {
+                IOUtils.copyLarge(contents, out, new byte[COPY_BUFFER_SIZE]);
+            }
+            final String digest = toHex(md.digest());
+            final Path target = resolve(digest);
+            synchronized (lock(digest)) {
+                if (Files.exists(target)) {
+                    LOGGER.debug("Artifact contents " + digest + " already stored");
+                } else {
+                    Files.createDirectories(target.getParent());
+                    move(temp, target);
+                }
+                synchronized (pins) {
+                    pins.merge(digest, 1, Integer::sum);
+                }
+            }
+            return digest;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public boolean contains(String digest) {
+        return Files.exists(resolve(digest));
+    }
+
+    public long size(String digest) throws IOException {
+        return Files.size(resolve(digest));
+    }
+
+    public InputStream open(String digest) throws IOException {
+        return Channels.newInputStream(FileChannel.open(resolve(digest), StandardOpenOption.READ));
+    }
+
+    public long transferTo(String digest, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(digest), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return position;
+        }
+    }
+
+    public void release(String digest) {
+        synchronized (lock(digest)) {
+            synchronized (pins) {
+                pins.computeIfPresent(digest, (key, count) -> (count > 1) ? count - 1 : null);
+            }
+        }
+    }
+
+    public boolean deleteUnreferenced(String digest, BooleanSupplier referenced) throws IOException {
+        final Path path = resolve(digest);
+        synchronized (lock(digest)) {
+            synchronized (pins) {
+                if (pins.containsKey(digest)) {
+                    return false;
+                }
+            }
+            if (referenced.getAsBoolean()) {
+                return false;
+            }
+            return Files.deleteIfExists(path);
+        }
+    }
+
+    private Object lock(String digest) {
+        return locks[(digest.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * Resolves the path to the file holding the contents with the specified digest.
+     */
+    private Path resolve(String digest) {
+        if (digest == null || !DIGEST_PATTERN.matcher(digest).matches()) {
+            throw new IllegalArgumentException("Invalid artifact digest: " + digest);
+        }
+        return directory.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static File getDefaultDirectory() {
+        final String dataDirectory = Config.getInstance().getProperty(Config.AlpineKey.DATA_DIRECTORY)
+                .replaceFirst("^~", Matcher.quoteReplacement(System.getProperty("user.home")));
+        return new File(dataDirectory, "artifacts");
+    }
+
+}
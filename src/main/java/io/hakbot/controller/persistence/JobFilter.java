@@ -0,0 +1,85 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import io.hakbot.controller.workers.State;
+import java.util.Date;
+
+/**
+ * Defines the criteria jobs must match in order to be returned by a job listing.
+ * Criteria which are not specified are not applied.
+ */
+public class JobFilter {
+
+    private State state;
+    private String provider;
+    private String publisher;
+    private Date from;
+    private Date to;
+
+    public JobFilter state(State state) {
+        this.state = state;
+        return this;
+    }
+
+    public JobFilter provider(String provider) {
+        this.provider = provider;
+        return this;
+    }
+
+    public JobFilter publisher(String publisher) {
+        this.publisher = publisher;
+        return this;
+    }
+
+    /**
+     * Only jobs created on or after the specified date will match.
+     */
+    public JobFilter from(Date from) {
+        this.from = from;
+        return this;
+    }
+
+    /**
+     * Only jobs created before the specified date will match.
+     */
+    public JobFilter to(Date to) {
+        this.to = to;
+        return this;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public String getPublisher() {
+        return publisher;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import alpine.Config;
+import io.hakbot.HakbotConfigKey;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the IDs of the API keys whose jobs a user may access, so that permission
+ * checks do not need to resolve the teams of the user and of every API key on each
+ * request. Entries expire after a configurable period and the cache is cleared
+ * whenever team membership is modified, or a team, API key or user is deleted,
+ * through the QueryManager.
+ */
+final class PermissionCache {
+
+    private static final long TTL = TimeUnit.SECONDS.toMillis(
+            Config.getInstance().getPropertyAsLong(HakbotConfigKey.PERMISSION_CACHE_TTL));
+
+    private static final PermissionCache INSTANCE = new PermissionCache();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private PermissionCache() { }
+
+    static PermissionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached entry for the specified user, or an empty Optional if the
+     * user is not cached or the entry has expired.
+     */
+    Optional<Entry> get(String username) {
+        final Entry entry = entries.get(username);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(username, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry);
+    }
+
+    void put(String username, Set<Long> apiKeyIds) {
+        entries.put(username, new Entry(apiKeyIds, System.currentTimeMillis() + TTL));
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    static final class Entry {
+        private final Set<Long> apiKeyIds;
+        private final long expires;
+
+        private Entry(Set<Long> apiKeyIds, long expires) {
+            this.apiKeyIds = (apiKeyIds == null) ? null : Collections.unmodifiableSet(apiKeyIds);
+            this.expires = expires;
+        }
+
+        /**
+         * Returns the IDs of the API keys whose jobs the user may access, or null if
+         * the user may access all jobs.
+         */
+        Set<Long> getApiKeyIds() {
+            return apiKeyIds;
+        }
+    }
+
+}
@@ -17,64 +17,192 @@
 package io.hakbot.controller.persistence;
 
 import alpine.Config;
+import alpine.logging.Logger;
 import alpine.model.ApiKey;
 import alpine.model.LdapUser;
 import alpine.model.UserPrincipal;
 import alpine.persistence.AlpineQueryManager;
+import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.model.JobEvent;
 import io.hakbot.controller.model.JobProperty;
 import io.hakbot.controller.model.SystemAccount;
 import io.hakbot.controller.model.Team;
+import io.hakbot.controller.workers.JobSubscriptionRegistry;
 import io.hakbot.controller.workers.State;
+import io.hakbot.util.GzipCompressingInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.StringUtils;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOOptimisticVerificationException;
 import javax.jdo.Query;
+import javax.jdo.datastore.JDOConnection;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.security.Principal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 public class QueryManager extends AlpineQueryManager {
 
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(QueryManager.class);
+
+    // Events added within the current transaction, by job UUID
+    private final Map<String, List<JobEvent>> uncommittedEvents = new LinkedHashMap<>();
+
     private static final boolean ENFORCE_AUTHORIZATION = Config.getInstance().getPropertyAsBoolean(Config.AlpineKey.ENFORCE_AUTHORIZATION);
+    private static final int INLINE_THRESHOLD = Config.getInstance().getPropertyAsInt(HakbotConfigKey.ARTIFACT_INLINE_THRESHOLD);
+    private static final ArtifactStore ARTIFACT_STORE = FileSystemArtifactStore.getInstance();
+
+    // The number of times a write which conflicts with a concurrent write to the same job is attempted
+    private static final int MAX_CONFLICT_ATTEMPTS = 5;
 
     public enum OrderDirection {
         ASC, DESC
     }
 
-    @SuppressWarnings("unchecked")
     public List<Job> getJobs(OrderDirection order, Principal principal) {
-        final Query query = pm.newQuery(Job.class);
-        query.setOrdering("created " + order.name());
-        final List<Job> result = (List<Job>) query.execute();
-        return getPermissible(result, principal);
+        return getPermissibleJobs(null, new HashMap<>(), "created " + order.name(), principal);
     }
 
-    @SuppressWarnings("unchecked")
     public List<Job> getJobs(State state, OrderDirection order, Principal principal) {
-        final Query query = pm.newQuery(Job.class, "state == :state");
-        query.setOrdering("created " + order.name());
-        final List<Job> result = (List<Job>) query.execute(state.getValue());
-        return getPermissible(result, principal);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("state", state.getValue());
+        return getPermissibleJobs("state == :state", params, "created " + order.name(), principal);
     }
 
-    @SuppressWarnings("unchecked")
     public List<Job> getJobs(String pluginClass, State state, OrderDirection order, Principal principal) {
-        final Query query = pm.newQuery(Job.class, "providerClass == :pluginClass && state == :state");
-        query.setOrdering("created " + order.name());
-        final List<Job> result = (List<Job>) query.execute(pluginClass, state.getValue());
-        return getPermissible(result, principal);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("pluginClass", pluginClass);
+        params.put("state", state.getValue());
+        return getPermissibleJobs("provider == :pluginClass && state == :state", params, "created " + order.name(), principal);
     }
 
+    /**
+     * Returns a page of jobs matching the filter, ordered from the most recently created.
+     * The page begins after the job with the specified UUID (the last job of the previous
+     * page), or with the most recent job if null. A limit of zero or less returns all
+     * remaining jobs. The jobs returned are a lightweight projection that excludes the
+     * message, and are not persistent.
+     */
     @SuppressWarnings("unchecked")
+    public List<Job> getJobs(JobFilter filter, String after, int limit, Principal principal) {
+        final List<String> clauses = new ArrayList<>();
+        final Map<String, Object> params = new HashMap<>();
+        if (filter.getState() != null) {
+            clauses.add("state == :state");
+            params.put("state", filter.getState().getValue());
+        }
+        if (filter.getProvider() != null) {
+            clauses.add("provider == :provider");
+            params.put("provider", filter.getProvider());
+        }
+        if (filter.getPublisher() != null) {
+            clauses.add("publisher == :publisher");
+            params.put("publisher", filter.getPublisher());
+        }
+        if (filter.getFrom() != null) {
+            clauses.add("created >= :from");
+            params.put("from", filter.getFrom());
+        }
+        if (filter.getTo() != null) {
+            clauses.add("created < :to");
+            params.put("to", filter.getTo());
+        }
+        if (after != null) {
+            final Query query = pm.newQuery(Job.class, "uuid == :uuid");
+            query.setResult("created, id");
+            query.setUnique(true);
+            final Object[] cursor = (Object[]) query.execute(after);
+            if (cursor == null) {
+                return new ArrayList<>();
+            }
+            clauses.add("(created < :afterCreated || (created == :afterCreated && id < :afterId))");
+            params.put("afterCreated", cursor[0]);
+            params.put("afterId", cursor[1]);
+        }
+        if (!applyPermissions(clauses, params, principal)) {
+            return new ArrayList<>();
+        }
+        final Query query = pm.newQuery(Job.class);
+        if (!clauses.isEmpty()) {
+            query.setFilter(StringUtils.join(clauses, " && "));
+        }
+        query.setResult("id, uuid, name, provider, publisher, created, started, completed, apiKeyId, state");
+        query.setOrdering("created DESC, id DESC");
+        if (limit > 0) {
+            query.setRange(0, limit);
+        }
+        final List<Job> jobs = new ArrayList<>();
+        for (Object[] row: (List<Object[]>) query.executeWithMap(params)) {
+            jobs.add(toJobSummary(row));
+        }
+        return jobs;
+    }
+
+    /**
+     * Creates a non-persistent job from a row of the job listing projection.
+     */
+    private static Job toJobSummary(Object[] row) {
+        final Job job = new Job();
+        job.setId((Long) row[0]);
+        job.setUuid((String) row[1]);
+        job.setName((String) row[2]);
+        job.setProvider((String) row[3]);
+        job.setPublisher((String) row[4]);
+        job.setCreated((Date) row[5]);
+        job.setStarted((Date) row[6]);
+        job.setCompleted((Date) row[7]);
+        job.setStartedByApiKeyId((Long) row[8]);
+        job.setState(State.parse((String) row[9]));
+        return job;
+    }
+
     public Job getJob(String uuid, Principal principal) {
-        final Query query = pm.newQuery(Job.class, "uuid == :uuid");
-        final List<Job> result = (List<Job>) query.execute(uuid);
-        final List<Job> permissible = getPermissible(result, principal);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("uuid", uuid);
+        final List<Job> permissible = getPermissibleJobs("uuid == :uuid", params, null, principal);
+        return permissible.size() == 0 ? null : permissible.get(0);
+    }
+
+    /**
+     * Returns the job along with the fields of the specified fetch group, which are not
+     * loaded by default.
+     */
+    public Job getJob(String uuid, Job.FetchGroup fetchGroup, Principal principal) {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("uuid", uuid);
+        final List<Job> permissible = getPermissibleJobs("uuid == :uuid", params, null, fetchGroup, principal);
         return permissible.size() == 0 ? null : permissible.get(0);
     }
 
@@ -101,20 +229,217 @@ public class QueryManager extends AlpineQueryManager {
         return pm.getObjectById(Job.class, job.getId());
     }
 
-    public Job updateJob(Job transientJob) {
-        final Job job = getJob(transientJob.getUuid(), new SystemAccount());
+    /**
+     * Updates the jobs with the specified UUIDs within a single transaction. The updater
+     * is called once for each job that exists and modifies the persistent job. If the
+     * transaction cannot be committed, none of the jobs are updated. The transaction is
+     * optimistic, and fails with a JDOOptimisticVerificationException if any of the jobs
+     * were modified concurrently.
+     * @return the jobs which were updated
+     */
+    public List<Job> updateJobs(Collection<String> uuids, Consumer<Job> updater) {
+        final List<Job> jobs = new ArrayList<>();
+        pm.currentTransaction().setOptimistic(true);
         pm.currentTransaction().begin();
-        job.setCompleted(transientJob.getCompleted());
-        job.setCreated(transientJob.getCreated());
-        job.setMessage(transientJob.getMessage());
-        job.setName(transientJob.getName());
-        job.setProvider(transientJob.getProvider());
-        job.setPublisher(transientJob.getPublisher());
-        job.setStarted(transientJob.getStarted());
-        job.setStartedByApiKeyId(transientJob.getStartedByApiKeyId());
-        job.setState(transientJob.getState());
-        pm.currentTransaction().commit();
-        return pm.getObjectById(Job.class, job.getId());
+        uncommittedEvents.clear();
+        try {
+            for (String uuid: uuids) {
+                final Job job = getJob(uuid, new SystemAccount());
+                if (job != null) {
+                    updater.accept(job);
+                    jobs.add(job);
+                }
+            }
+            pm.currentTransaction().commit();
+            for (Map.Entry<String, List<JobEvent>> entry: uncommittedEvents.entrySet()) {
+                JobSubscriptionRegistry.getInstance().eventsCommitted(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            uncommittedEvents.clear();
+            if (pm.currentTransaction().isActive()) {
+                pm.currentTransaction().rollback();
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Changes the state of the persistent job, provided the transition is permitted by
+     * {@link State#canTransitionTo(State)}. The transition is appended to the event log of
+     * the job and the started and completed timestamps are maintained. Must be called within
+     * a transaction, such as from within {@link #updateJobs(Collection, Consumer)}.
+     * @return true if the state was changed, false if the transition is not permitted
+     */
+    public boolean changeJobState(Job job, State state, JobEvent.Level level) {
+        final State current = job.getState();
+        if (current == null || !current.canTransitionTo(state)) {
+            return false;
+        }
+        addJobEvent(job, level, "Job state changed to " + state.getValue(), current, state);
+        job.setState(state);
+        if (state.isFinal() || state == State.COMPLETED) {
+            job.setCompleted(new Date());
+        } else if (state == State.IN_PROGRESS) {
+            job.setStarted(new Date());
+        }
+        return true;
+    }
+
+    /**
+     * Transitions the job from the expected state to the next state, as an atomic
+     * compare-and-set. The transition only succeeds if the job is in the expected state,
+     * the transition is permitted, and the job is not modified concurrently. Callers which
+     * race to transition a job can rely on exactly one of them succeeding. Conflicts with
+     * writes which do not change the state of the job, such as appended events, are retried.
+     * @return true if the job was transitioned
+     */
+    public boolean transitionJob(String uuid, State expected, State next) {
+        if (!expected.canTransitionTo(next)) {
+            return false;
+        }
+        final JobEvent.Level level = (next == State.FAILED) ? JobEvent.Level.ERROR : JobEvent.Level.INFO;
+        for (int attempt = 1; attempt <= MAX_CONFLICT_ATTEMPTS; attempt++) {
+            try {
+                final List<Job> jobs = updateJobs(Collections.singleton(uuid), job -> {
+                    if (job.getState() != expected || !changeJobState(job, next, level)) {
+                        throw new IllegalStateException("Job " + uuid + " is not in state " + expected.getValue());
+                    }
+                });
+                return !jobs.isEmpty();
+            } catch (IllegalStateException e) {
+                return false;
+            } catch (RuntimeException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines if a write failed because it conflicted with a concurrent write to the
+     * same job: either the job was modified concurrently, or another event was appended
+     * to the log of the job with the same sequence number. Such writes may be retried.
+     */
+    public static boolean isConflict(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JDOOptimisticVerificationException) {
+                return true;
+            }
+            // SQLSTATE class 23 is an integrity constraint violation, such as of the unique sequence of events
+            if (cause instanceof SQLException && StringUtils.startsWith(((SQLException) cause).getSQLState(), "23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Claims up to the specified number of jobs of the provider for a remote worker, oldest
+     * first. Jobs which have been created and not yet claimed are eligible, as are jobs in
+     * progress whose lease has expired. Each job is claimed in its own optimistic transaction,
+     * so a job is never held by more than one worker. Claimed jobs are in progress and hold
+     * the lease until it expires or is renewed.
+     * @param provider the class name of the provider
+     * @param max the maximum number of jobs to claim
+     * @param leaseId the lease the claimed jobs are held under
+     * @param leaseOwner identifies the worker holding the lease
+     * @param leaseMillis the number of milliseconds until the lease expires
+     * @param principal the principal claiming the jobs
+     * @return the jobs which were claimed
+     */
+    @SuppressWarnings("unchecked")
+    public List<Job> claimJobs(String provider, int max, String leaseId, String leaseOwner, long leaseMillis, Principal principal) {
+        final List<Job> claimed = new ArrayList<>();
+        final Date now = new Date();
+        final List<String> clauses = new ArrayList<>();
+        final Map<String, Object> params = new HashMap<>();
+        clauses.add("provider == :provider && (state == :created || (state == :inProgress && leaseExpires < :now))");
+        params.put("provider", provider);
+        params.put("created", State.CREATED.getValue());
+        params.put("inProgress", State.IN_PROGRESS.getValue());
+        params.put("now", now);
+        if (!applyPermissions(clauses, params, principal)) {
+            return claimed;
+        }
+        final Query query = pm.newQuery(Job.class);
+        query.setFilter(StringUtils.join(clauses, " && "));
+        query.setResult("uuid");
+        query.setOrdering("created ASC, id ASC");
+        // Additional candidates take the place of jobs claimed concurrently by other workers
+        query.setRange(0, max * 2L);
+        final List<String> candidates = new ArrayList<>((List<String>) query.executeWithMap(params));
+        for (String uuid: candidates) {
+            if (claimed.size() >= max) {
+                break;
+            }
+            try {
+                claimed.addAll(updateJobs(Collections.singleton(uuid), job -> {
+                    if (job.getState() == State.CREATED) {
+                        changeJobState(job, State.IN_PROGRESS, JobEvent.Level.INFO);
+                    } else if (job.getState() == State.IN_PROGRESS && job.getLeaseExpires() != null
+                            && job.getLeaseExpires().before(now)) {
+                        addJobEvent(job, JobEvent.Level.INFO, "Lease expired. Job reclaimed", null, null);
+                    } else {
+                        throw new IllegalStateException("Job " + uuid + " is no longer eligible to be claimed");
+                    }
+                    job.setLeaseId(leaseId);
+                    job.setLeaseOwner(leaseOwner);
+                    job.setLeaseExpires(new Date(now.getTime() + leaseMillis));
+                }));
+            } catch (IllegalStateException e) {
+                LOGGER.debug("Job " + uuid + " was claimed concurrently");
+            } catch (RuntimeException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                LOGGER.debug("Job " + uuid + " was claimed or modified concurrently");
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Renews the lease of all jobs in progress which are held under it by the specified owner.
+     * @param leaseId the lease to renew
+     * @param leaseOwner identifies the worker holding the lease
+     * @param leaseMillis the number of milliseconds until the lease expires
+     * @return the UUIDs of the jobs still held under the lease
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> renewJobLease(String leaseId, String leaseOwner, long leaseMillis) {
+        final Query query = pm.newQuery(Job.class, "leaseId == :leaseId && state == :state && leaseOwner == :leaseOwner");
+        query.setResult("uuid");
+        final List<String> uuids = new ArrayList<>((List<String>) query.execute(leaseId, State.IN_PROGRESS.getValue(), leaseOwner));
+        final Date expires = new Date(System.currentTimeMillis() + leaseMillis);
+        final List<String> renewed = new ArrayList<>();
+        for (String uuid: uuids) {
+            // Events appended to the job concurrently cause a conflict, after which the lease is checked again
+            for (int attempt = 1; attempt <= MAX_CONFLICT_ATTEMPTS; attempt++) {
+                try {
+                    if (!updateJobs(Collections.singleton(uuid), job -> {
+                        if (!leaseId.equals(job.getLeaseId()) || !Objects.equals(leaseOwner, job.getLeaseOwner())
+                                || job.getState() != State.IN_PROGRESS) {
+                            throw new IllegalStateException("Job " + uuid + " is no longer held under the lease");
+                        }
+                        job.setLeaseExpires(expires);
+                    }).isEmpty()) {
+                        renewed.add(uuid);
+                    }
+                    break;
+                } catch (IllegalStateException e) {
+                    LOGGER.debug("Job " + uuid + " is no longer held under the lease");
+                    break;
+                } catch (RuntimeException e) {
+                    if (!isConflict(e)) {
+                        throw e;
+                    }
+                    LOGGER.debug("Job " + uuid + " was modified concurrently while renewing its lease");
+                }
+            }
+        }
+        return renewed;
     }
 
     public long getUnprocessedJobCount() {
@@ -129,14 +454,106 @@ public class QueryManager extends AlpineQueryManager {
         return (List<JobProperty>) query.execute(job.getId());
     }
 
+    @SuppressWarnings("unchecked")
     public JobProperty getJobProperty(Job job, String key) {
-        final List<JobProperty> properties = getJobProperties(job);
-        for (JobProperty property: properties) {
-            if (property.getKey().equals(key)) {
-                return property;
+        final Query query = pm.newQuery(JobProperty.class, "jobid == :jobid && key == :key");
+        query.setOrdering("id ASC");
+        query.setRange(0, 1);
+        final List<JobProperty> result = (List<JobProperty>) query.execute(job.getId(), key);
+        return result.size() == 0 ? null : result.get(0);
+    }
+
+    /**
+     * Appends an event to the log of the job. The event is assigned the next sequence
+     * number of the job. The from and to states are only specified for state transitions.
+     * If called within {@link #updateJobs(Collection, Consumer)}, the event is written as
+     * part of that transaction, and the version of the job is incremented, so that the
+     * transaction fails if events are appended to the job concurrently. Otherwise, the
+     * event is written in its own transaction, which is retried with the next sequence
+     * number if another event was appended concurrently.
+     */
+    public JobEvent addJobEvent(Job job, JobEvent.Level level, String text, State fromState, State toState) {
+        if (pm.currentTransaction().isActive()) {
+            final JobEvent event = newJobEvent(job, level, text, fromState, toState);
+            JDOHelper.makeDirty(job, "state");
+            pm.flush(); // Makes the sequence number visible to subsequent events of the transaction
+            // Subscribers are informed once the transaction commits
+            uncommittedEvents.computeIfAbsent(job.getUuid(), k -> new ArrayList<>()).add(copyOf(event));
+            return event;
+        }
+        for (int attempt = 1; ; attempt++) {
+            pm.currentTransaction().begin();
+            try {
+                final JobEvent event = newJobEvent(job, level, text, fromState, toState);
+                pm.currentTransaction().commit();
+                JobSubscriptionRegistry.getInstance().eventsCommitted(job.getUuid(), Collections.singletonList(copyOf(event)));
+                return pm.getObjectById(JobEvent.class, event.getId());
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_CONFLICT_ATTEMPTS || !isConflict(e)) {
+                    throw e;
+                }
+            } finally {
+                if (pm.currentTransaction().isActive()) {
+                    pm.currentTransaction().rollback();
+                }
             }
         }
-        return null;
+    }
+
+    /**
+     * Persists an event with the next sequence number of the job. Must be called within a transaction.
+     */
+    private JobEvent newJobEvent(Job job, JobEvent.Level level, String text, State fromState, State toState) {
+        final JobEvent event = new JobEvent();
+        event.setJobid(job.getId());
+        event.setSequence(getLastJobEventSequence(job) + 1);
+        event.setTimestamp(new Date());
+        event.setLevel(level);
+        event.setText(text);
+        event.setFromState(fromState);
+        event.setToState(toState);
+        pm.makePersistent(event);
+        return event;
+    }
+
+    /**
+     * Creates a non-persistent copy of the event which may be handed to subscribers.
+     */
+    private static JobEvent copyOf(JobEvent event) {
+        final JobEvent copy = new JobEvent();
+        copy.setJobid(event.getJobid());
+        copy.setSequence(event.getSequence());
+        copy.setTimestamp(event.getTimestamp());
+        copy.setLevel(event.getLevel());
+        copy.setText(event.getText());
+        copy.setFromState(event.getFromState());
+        copy.setToState(event.getToState());
+        return copy;
+    }
+
+    /**
+     * Returns the events of the job with a sequence number greater than the specified
+     * sequence, in the order they occurred. A limit of zero or less returns all events.
+     */
+    @SuppressWarnings("unchecked")
+    public List<JobEvent> getJobEvents(Job job, long afterSequence, int limit) {
+        final Query query = pm.newQuery(JobEvent.class, "jobid == :jobid && sequence > :sequence");
+        query.setOrdering("sequence ASC");
+        if (limit > 0) {
+            query.setRange(0, limit);
+        }
+        return (List<JobEvent>) query.execute(job.getId(), afterSequence);
+    }
+
+    /**
+     * Returns the sequence number of the most recent event of the job, or zero if the
+     * job does not have any events.
+     */
+    public long getLastJobEventSequence(Job job) {
+        final Query query = pm.newQuery(JobEvent.class, "jobid == :jobid");
+        query.setResult("max(sequence)");
+        final Long sequence = (Long) query.execute(job.getId());
+        return (sequence == null) ? 0 : sequence;
     }
 
     public JobProperty setJobProperty(Job job, String key, Object value) {
@@ -161,18 +578,216 @@ public class QueryManager extends AlpineQueryManager {
         return (List<JobArtifact>) query.execute(job.getId());
     }
 
+    /**
+     * Returns the artifact of the specified type. The contents are not loaded until accessed.
+     */
+    @SuppressWarnings("unchecked")
     public JobArtifact getJobArtifact(Job job, JobArtifact.Type type) {
-        final List<JobArtifact> artifacts = getJobArtifacts(job);
-        for (JobArtifact artifact: artifacts) {
-            if (artifact.getType().equals(type.name())) {
-                return artifact;
-            }
+        final Query query = pm.newQuery(JobArtifact.class, "jobid == :jobid && type == :type");
+        query.setOrdering("id ASC");
+        query.setRange(0, 1);
+        final List<JobArtifact> result = (List<JobArtifact>) query.execute(job.getId(), type.name());
+        return result.size() == 0 ? null : result.get(0);
+    }
+
+    /**
+     * Returns the artifact with its contents loaded and decoded, regardless of whether the
+     * contents are stored inline or in the ArtifactStore. Intended for small artifacts such as
+     * payloads. Large artifacts should be streamed using {@link #getJobArtifactContents(JobArtifact)}.
+     */
+    public JobArtifact getJobArtifactWithContents(Job job, JobArtifact.Type type) {
+        final JobArtifact artifact = getJobArtifact(job, type);
+        if (artifact == null) {
+            return null;
         }
-        return null;
+        if (!artifact.isExternal() && artifact.getEncoding() == null) {
+            artifact.getContents(); // Force this blob to be loaded while the pm is still open
+            return artifact;
+        }
+        final JobArtifact transientArtifact = new JobArtifact();
+        transientArtifact.setId(artifact.getId());
+        transientArtifact.setJobid(artifact.getJobid());
+        transientArtifact.setUuid(artifact.getUuid());
+        transientArtifact.setType(JobArtifact.Type.valueOf(artifact.getType()));
+        transientArtifact.setMimetype(artifact.getMimetype());
+        transientArtifact.setFilename(artifact.getFilename());
+        transientArtifact.setSize(artifact.getSize());
+        transientArtifact.setDigest(artifact.getDigest());
+        try (InputStream in = getJobArtifactContents(artifact)) {
+            transientArtifact.setContents(in != null ? IOUtils.toByteArray(in) : new byte[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the contents of artifact " + artifact.getUuid(), e);
+        }
+        return transientArtifact;
     }
 
+    /**
+     * Creates or updates an artifact. Contents of compressible mime types are compressed, and
+     * contents larger than the inline threshold are placed in the ArtifactStore.
+     */
     public JobArtifact setJobArtifact(@Nonnull Job job, @Nonnull JobArtifact.Type type, @Nonnull String mimeType, @Nonnull byte[] contents, @Nullable String uuid, @Nullable String filename) {
+        try {
+            return setJobArtifact(job, type, mimeType, new ByteArrayInputStream(contents), uuid, filename);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to store the contents of artifact", e);
+        }
+    }
+
+    /**
+     * Creates or updates an artifact, streaming the contents into storage. Contents of
+     * compressible mime types are GZIP compressed as they are read. Stored contents no larger
+     * than the inline threshold are stored in the database, larger contents are placed in the
+     * ArtifactStore. The contents are never held in memory in their entirety. The stream is
+     * read until exhausted, but not closed.
+     * @throws IOException if the contents could not be read or stored
+     */
+    public JobArtifact setJobArtifact(@Nonnull Job job, @Nonnull JobArtifact.Type type, @Nonnull String mimeType, @Nonnull InputStream contents, @Nullable String uuid, @Nullable String filename) throws IOException {
+        final String encoding = JobArtifact.MimeType.isCompressible(mimeType) ? JobArtifact.Encoding.GZIP.value() : null;
+        // Neither the compressing stream nor the sequence below may close the caller's stream
+        final InputStream shielded = new CloseShieldInputStream(contents);
+        try (InputStream encoded = (encoding != null) ? new GzipCompressingInputStream(shielded) : shielded) {
+            final byte[] buffer = new byte[INLINE_THRESHOLD + 1];
+            final int length = IOUtils.read(encoded, buffer);
+            if (length <= INLINE_THRESHOLD) {
+                return setInlineJobArtifact(job, type, mimeType, encoding, Arrays.copyOf(buffer, length), uuid, filename);
+            }
+            final InputStream in = new SequenceInputStream(new ByteArrayInputStream(buffer, 0, length), encoded);
+            return setExternalJobArtifact(job, type, mimeType, encoding, in, uuid, filename);
+        }
+    }
+
+    private JobArtifact setInlineJobArtifact(Job job, JobArtifact.Type type, String mimeType, String encoding, byte[] contents, String uuid, String filename) {
         pm.currentTransaction().begin();
+        final JobArtifact artifact = prepareJobArtifact(job, type, mimeType, uuid, filename);
+        final String previousDigest = artifact.getDigest();
+        artifact.setContents(contents);
+        artifact.setEncoding(encoding);
+        artifact.setSize((long) contents.length);
+        artifact.setDigest(null);
+        pm.currentTransaction().commit();
+        releaseArtifactContents(Collections.singleton(previousDigest));
+        return pm.getObjectById(JobArtifact.class, artifact.getId());
+    }
+
+    private JobArtifact setExternalJobArtifact(Job job, JobArtifact.Type type, String mimeType, String encoding, InputStream contents, String uuid, String filename) throws IOException {
+        final String digest = ARTIFACT_STORE.store(contents);
+        final String previousDigest;
+        final JobArtifact artifact;
+        try {
+            pm.currentTransaction().begin();
+            artifact = prepareJobArtifact(job, type, mimeType, uuid, filename);
+            previousDigest = artifact.getDigest();
+            artifact.setContents(new byte[0]);
+            artifact.setEncoding(encoding);
+            artifact.setSize(ARTIFACT_STORE.size(digest));
+            artifact.setDigest(digest);
+            pm.currentTransaction().commit();
+        } finally {
+            if (pm.currentTransaction().isActive()) {
+                pm.currentTransaction().rollback();
+            }
+            // The contents are referenced by the committed artifact, or are no longer needed
+            ARTIFACT_STORE.release(digest);
+        }
+        if (!digest.equals(previousDigest)) {
+            releaseArtifactContents(Collections.singleton(previousDigest));
+        }
+        return pm.getObjectById(JobArtifact.class, artifact.getId());
+    }
+
+    /**
+     * Opens a stream to the decoded contents of the specified artifact. Contents stored inline
+     * are read from the database as the stream is consumed, in which case the QueryManager must
+     * remain open until the stream is closed. The stream must be closed by the caller. Returns
+     * null if the artifact no longer exists.
+     * @throws IOException if the contents could not be read
+     */
+    public InputStream getJobArtifactContents(@Nonnull JobArtifact artifact) throws IOException {
+        final InputStream in = getJobArtifactStoredContents(artifact);
+        if (in == null || !artifact.isGzipEncoded()) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a stream to the contents of the specified artifact as they are stored, without
+     * decoding them. Refer to {@link JobArtifact#getEncoding()} for the encoding applied.
+     * @see #getJobArtifactContents(JobArtifact)
+     */
+    public InputStream getJobArtifactStoredContents(@Nonnull JobArtifact artifact) throws IOException {
+        if (artifact.isExternal()) {
+            return ARTIFACT_STORE.open(artifact.getDigest());
+        }
+        final JDOConnection jdoConnection = pm.getDataStoreConnection();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            final Connection connection = (Connection) jdoConnection.getNativeConnection();
+            stmt = connection.prepareStatement("SELECT CONTENTS FROM JOBARTIFACT WHERE ID = ?");
+            stmt.setLong(1, artifact.getId());
+            rs = stmt.executeQuery();
+            final InputStream in = rs.next() ? rs.getBinaryStream(1) : null;
+            if (in == null) {
+                closeQuietly(rs, stmt, jdoConnection);
+                return null;
+            }
+            final ResultSet resultSet = rs;
+            final PreparedStatement statement = stmt;
+            return new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        closeQuietly(resultSet, statement, jdoConnection);
+                    }
+                }
+            };
+        } catch (SQLException e) {
+            closeQuietly(rs, stmt, jdoConnection);
+            throw new IOException("Unable to read the contents of artifact " + artifact.getUuid(), e);
+        }
+    }
+
+    /**
+     * Copies the decoded contents of the specified artifact to the output stream without holding
+     * the contents in memory in their entirety. The output stream is not closed.
+     * @return the number of bytes copied
+     * @throws IOException if the contents could not be read or written
+     */
+    public long copyJobArtifactContents(@Nonnull JobArtifact artifact, @Nonnull OutputStream out) throws IOException {
+        return copyJobArtifactContents(artifact, out, true);
+    }
+
+    /**
+     * Copies the contents of the specified artifact to the output stream, optionally decoding
+     * them. Undecoded contents held in the ArtifactStore are transferred directly from the file
+     * channel. The output stream is not closed.
+     * @return the number of bytes copied
+     * @throws IOException if the contents could not be read or written
+     */
+    public long copyJobArtifactContents(@Nonnull JobArtifact artifact, @Nonnull OutputStream out, boolean decode) throws IOException {
+        if (artifact.isExternal() && (!decode || artifact.getEncoding() == null)) {
+            return ARTIFACT_STORE.transferTo(artifact.getDigest(), Channels.newChannel(out));
+        }
+        try (InputStream in = decode ? getJobArtifactContents(artifact) : getJobArtifactStoredContents(artifact)) {
+            if (in == null) {
+                return 0;
+            }
+            return IOUtils.copyLarge(in, out);
+        }
+    }
+
+    /**
+     * Creates or updates an artifact without setting its contents. Must be called from within a transaction.
+     */
+    private JobArtifact prepareJobArtifact(Job job, JobArtifact.Type type, String mimeType, String uuid, String filename) {
         JobArtifact artifact = null;
         boolean isNewObject = false;
         if (uuid != null) {
@@ -187,55 +802,99 @@ public class QueryManager extends AlpineQueryManager {
         artifact.setJobid(job.getId());
         artifact.setType(type);
         artifact.setMimetype(mimeType);
-        artifact.setContents(contents);
         artifact.setFilename(filename);
         if (isNewObject) {
             pm.makePersistent(artifact);
         }
-        pm.currentTransaction().commit();
-        return pm.getObjectById(JobArtifact.class, artifact.getId());
+        return artifact;
     }
 
-    @SuppressWarnings("unchecked")
-    public void deleteAllJobs(Principal principal) {
-        final Query query = pm.newQuery(Job.class);
-        final List<Job> result = (List<Job>) query.execute();
-        final List<Job> permissible = getPermissible(result, principal);
-        pm.currentTransaction().begin();
-        for (Job job: permissible) {
-            final List<JobProperty> properties = getJobProperties(job);
-            pm.deletePersistentAll(properties);
+    /**
+     * Deletes the artifacts of the job. Must be called from within a transaction. The digests of
+     * contents held in the ArtifactStore are added to the specified set, and should be released
+     * once the transaction has been committed.
+     */
+    private void deleteJobArtifacts(Job job, Set<String> digests) {
+        final List<JobArtifact> artifacts = getJobArtifacts(job);
+        for (JobArtifact artifact: artifacts) {
+            if (artifact.isExternal()) {
+                digests.add(artifact.getDigest());
+            }
         }
-        pm.deletePersistentAll(permissible);
-        pm.currentTransaction().commit();
+        pm.deletePersistentAll(artifacts);
     }
 
-    @SuppressWarnings("unchecked")
-    public void deleteJob(String uuid, Principal principal) {
-        final Query query = pm.newQuery(Job.class, "uuid == :uuid");
-        final List<Job> result = (List<Job>) query.execute(uuid);
-        final List<Job> permissible = getPermissible(result, principal);
-        pm.currentTransaction().begin();
-        for (Job job: permissible) {
-            final List<JobProperty> properties = getJobProperties(job);
-            pm.deletePersistentAll(properties);
+    /**
+     * Deletes contents from the ArtifactStore which are no longer referenced by any artifact.
+     * References are counted while holding the lock of the digest in the ArtifactStore, so
+     * that contents stored concurrently by another artifact are not deleted.
+     */
+    private void releaseArtifactContents(Set<String> digests) {
+        for (String digest: digests) {
+            if (digest == null) {
+                continue;
+            }
+            try {
+                ARTIFACT_STORE.deleteUnreferenced(digest, () -> {
+                    final Query query = pm.newQuery(JobArtifact.class, "digest == :digest");
+                    query.setResult("count(id)");
+                    return (Long) query.execute(digest) > 0;
+                });
+            } catch (IOException e) {
+                LOGGER.error("Unable to delete artifact contents " + digest + ": " + e.getMessage());
+            }
         }
-        pm.deletePersistentAll(permissible);
-        pm.currentTransaction().commit();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Quietly closes the JDBC resources used to stream artifact contents.
+     */
+    private static void closeQuietly(ResultSet rs, Statement stmt, JDOConnection jdoConnection) {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            // Nothing more can be done
+        } finally {
+            jdoConnection.close();
+        }
+    }
+
+    public void deleteAllJobs(Principal principal) {
+        deleteJobs(getPermissibleJobs(null, new HashMap<>(), null, principal));
+    }
+
+    public void deleteJob(String uuid, Principal principal) {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("uuid", uuid);
+        deleteJobs(getPermissibleJobs("uuid == :uuid", params, null, principal));
+    }
+
     public void deleteJobs(State state, Principal principal) {
-        final Query query = pm.newQuery(Job.class, "state == :state");
-        final List<Job> result = (List<Job>) query.execute(state.getValue());
-        final List<Job> permissible = getPermissible(result, principal);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("state", state.getValue());
+        deleteJobs(getPermissibleJobs("state == :state", params, null, principal));
+    }
+
+    /**
+     * Deletes the jobs along with their properties and artifacts.
+     */
+    private void deleteJobs(List<Job> jobs) {
+        final Set<String> digests = new HashSet<>();
         pm.currentTransaction().begin();
-        for (Job job: permissible) {
+        for (Job job: jobs) {
             final List<JobProperty> properties = getJobProperties(job);
             pm.deletePersistentAll(properties);
+            pm.newQuery(JobEvent.class, "jobid == :jobid").deletePersistentAll(job.getId());
+            deleteJobArtifacts(job, digests);
         }
-        pm.deletePersistentAll(permissible);
+        pm.deletePersistentAll(jobs);
         pm.currentTransaction().commit();
+        releaseArtifactContents(digests);
     }
 
     @Override
@@ -315,6 +974,7 @@ public class QueryManager extends AlpineQueryManager {
         team.setName(transientTeam.getName());
         team.setHakmaster(transientTeam.isHakmaster());
         pm.currentTransaction().commit();
+        PermissionCache.getInstance().clear();
         return pm.getObjectById(Team.class, team.getId());
     }
 
@@ -332,59 +992,146 @@ public class QueryManager extends AlpineQueryManager {
             teams.add(team);
             user.setTeams(teams);
             pm.currentTransaction().commit();
+            PermissionCache.getInstance().clear();
             return true;
         }
         return false;
     }
 
-    private List<Job> getPermissible(List<Job> result, Principal principal) {
-        final List<Job> permissible = new ArrayList<>();
-        for (Job job: result) {
-            if (hasPermission(job, principal)) {
-                permissible.add(job);
-            }
+    @Override
+    public boolean removeUserFromTeam(UserPrincipal user, alpine.model.Team team) {
+        final boolean modified = super.removeUserFromTeam(user, team);
+        PermissionCache.getInstance().clear();
+        return modified;
+    }
+
+    @Override
+    public ApiKey createApiKey(alpine.model.Team team) {
+        final ApiKey apiKey = super.createApiKey(team);
+        PermissionCache.getInstance().clear();
+        return apiKey;
+    }
+
+    /**
+     * Deletes the team along with its API keys.
+     */
+    public void deleteTeam(Team team) {
+        delete(team.getApiKeys());
+        delete(team);
+        PermissionCache.getInstance().clear();
+    }
+
+    public void deleteApiKey(ApiKey apiKey) {
+        delete(apiKey);
+        PermissionCache.getInstance().clear();
+    }
+
+    @Override
+    public void deleteLdapUser(LdapUser user) {
+        super.deleteLdapUser(user);
+        PermissionCache.getInstance().clear();
+    }
+
+    /**
+     * Returns the jobs matching the filter which the principal is permitted to access. The
+     * permission check is part of the query rather than applied to the results.
+     */
+    private List<Job> getPermissibleJobs(String filter, Map<String, Object> params, String ordering, Principal principal) {
+        return getPermissibleJobs(filter, params, ordering, null, principal);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Job> getPermissibleJobs(String filter, Map<String, Object> params, String ordering, Job.FetchGroup fetchGroup, Principal principal) {
+        final List<String> clauses = new ArrayList<>();
+        if (filter != null) {
+            clauses.add(filter);
         }
-        return permissible;
+        if (!applyPermissions(clauses, params, principal)) {
+            return new ArrayList<>();
+        }
+        final Query query = pm.newQuery(Job.class);
+        if (!clauses.isEmpty()) {
+            query.setFilter(StringUtils.join(clauses, " && "));
+        }
+        if (ordering != null) {
+            query.setOrdering(ordering);
+        }
+        if (fetchGroup != null) {
+            query.getFetchPlan().addGroup(fetchGroup.getName());
+        }
+        return (List<Job>) query.executeWithMap(params);
     }
 
-    public boolean hasPermission(Job job, Principal principal) {
-        if (!ENFORCE_AUTHORIZATION) {
+    /**
+     * Adds the permission predicate for the principal to the clauses and parameters of a
+     * job query. Returns false if the principal is not permitted to access any job, in
+     * which case the query need not be executed.
+     */
+    private boolean applyPermissions(List<String> clauses, Map<String, Object> params, Principal principal) {
+        final Set<Long> apiKeyIds = getPermissibleApiKeyIds(principal);
+        if (apiKeyIds == null) {
             return true;
         }
+        if (apiKeyIds.isEmpty()) {
+            return false;
+        }
+        clauses.add(":apiKeyIds.contains(apiKeyId)");
+        params.put("apiKeyIds", apiKeyIds);
+        return true;
+    }
+
+    /**
+     * Returns the IDs of the API keys whose jobs the principal is permitted to access, or
+     * null if the principal is permitted to access all jobs. API keys may only access the
+     * jobs they started. LDAP users may access jobs started by API keys of the teams they
+     * are a member of, or all jobs if they are a member of a hakmaster team.
+     */
+    private Set<Long> getPermissibleApiKeyIds(Principal principal) {
+        if (!ENFORCE_AUTHORIZATION) {
+            return null;
+        }
         if (principal instanceof ApiKey) {
-            return hasPermission(job, (ApiKey) principal);
+            //todo: check apikey team permission - future enhancement
+            return Collections.singleton(((ApiKey) principal).getId());
         } else if (principal instanceof LdapUser) {
-            return hasPermission(job, (LdapUser) principal);
+            final LdapUser ldapUser = (LdapUser) principal;
+            final PermissionCache cache = PermissionCache.getInstance();
+            final Optional<PermissionCache.Entry> entry = cache.get(ldapUser.getUsername());
+            if (entry.isPresent()) {
+                return entry.get().getApiKeyIds();
+            }
+            final Set<Long> apiKeyIds = resolvePermissibleApiKeyIds(ldapUser);
+            cache.put(ldapUser.getUsername(), apiKeyIds);
+            return apiKeyIds;
         } else if (principal instanceof SystemAccount) {
-            return true;
+            return null;
         } else {
-            return false;
+            return Collections.emptySet();
         }
     }
 
-    private boolean hasPermission(Job job, ApiKey apiKey) {
-        //todo: check apikey team permission - future enhancement
-        return job.getStartedByApiKeyId() == apiKey.getId();
-    }
-
-    @SuppressWarnings("unchecked")
-    private boolean hasPermission(Job job, LdapUser ldapUser) {
-        final ApiKey apiKey = pm.getObjectById(ApiKey.class, job.getStartedByApiKeyId());
-        final ArrayList<Long> list = new ArrayList<>();
-        for (alpine.model.Team alpineTeam: apiKey.getTeams()) {
-            final Team team = getObjectById(Team.class, alpineTeam.getId());
-            list.add(team.getId());
+    private Set<Long> resolvePermissibleApiKeyIds(LdapUser ldapUser) {
+        final Set<Long> apiKeyIds = new HashSet<>();
+        if (ldapUser.getTeams() == null) {
+            return apiKeyIds;
         }
         for (alpine.model.Team alpineTeam: ldapUser.getTeams()) {
             final Team team = getObjectById(Team.class, alpineTeam.getId());
             if (team.isHakmaster()) {
-                return true;
+                return null;
             }
-            if (list.contains(team.getId())) {
-                return true;
+            if (team.getApiKeys() != null) {
+                for (ApiKey apiKey: team.getApiKeys()) {
+                    apiKeyIds.add(apiKey.getId());
+                }
             }
         }
-        return false;
+        return apiKeyIds;
+    }
+
+    public boolean hasPermission(Job job, Principal principal) {
+        final Set<Long> apiKeyIds = getPermissibleApiKeyIds(principal);
+        return apiKeyIds == null || apiKeyIds.contains(job.getStartedByApiKeyId());
     }
 
     public boolean isHakMaster(UserPrincipal principal) {
@@ -25,6 +25,9 @@ import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.controller.workers.State;
 import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -109,11 +112,66 @@ public abstract class BasePlugin {
         }
     }
 
+    /**
+     * Adds an artifact to the job, streaming the contents into storage. The contents
+     * are never held in memory in their entirety. The stream is not closed.
+     */
+    protected JobArtifact addArtifact(Job job, JobArtifact.Type type, String mimeType, InputStream contents, String filename) throws IOException {
+        try (QueryManager qm = new QueryManager()) {
+            return qm.setJobArtifact(job, type, mimeType, contents, null, filename);
+        }
+    }
+
+    /**
+     * Returns the artifact without loading its contents. Use {@link #openArtifact(JobArtifact)}
+     * to read the contents of large artifacts.
+     */
+    protected JobArtifact getArtifactMetadata(Job job, JobArtifact.Type type) {
+        try (QueryManager qm = new QueryManager()) {
+            return qm.getJobArtifact(job, type);
+        }
+    }
+
+    /**
+     * Opens a stream to the contents of the artifact. The contents are read from storage
+     * and decompressed as the stream is consumed. The stream must be closed by the caller. Returns null if
+     * the artifact does not exist.
+     */
+    protected InputStream openArtifact(JobArtifact artifact) throws IOException {
+        if (artifact == null) {
+            return null;
+        }
+        final QueryManager qm = new QueryManager();
+        final InputStream in;
+        try {
+            in = qm.getJobArtifactContents(artifact);
+        } catch (IOException | RuntimeException e) {
+            qm.close();
+            throw e;
+        }
+        if (in == null) {
+            qm.close();
+            return null;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    qm.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the artifact along with its contents. Intended for small artifacts such as
+     * payloads. Large artifacts should be read using {@link #openArtifact(JobArtifact)}.
+     */
     protected JobArtifact getArtifact(Job job, JobArtifact.Type type) {
         try (QueryManager qm = new QueryManager()) {
-            final JobArtifact artifact = qm.getJobArtifact(job, type);
-            final byte[] contents = artifact.getContents(); // Force this blob to be loaded when qm is still open
-            return artifact;
+            return qm.getJobArtifactWithContents(job, type);
         }
     }
 
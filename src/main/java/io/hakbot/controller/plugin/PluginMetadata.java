@@ -34,6 +34,10 @@ public class PluginMetadata {
         init(clazz);
     }
 
+    public PluginMetadata(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
     private void init(Class clazz) {
         try {
             @SuppressWarnings("unchecked")
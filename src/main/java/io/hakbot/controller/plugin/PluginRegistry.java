@@ -0,0 +1,266 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.plugin;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.providers.AsynchronousProvider;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The PluginRegistry resolves all enabled providers and publishers once, when
+ * the application starts. For each plugin, the registry holds the resolved
+ * class, a MethodHandle used to create new instances, the plugin metadata,
+ * whether or not the plugin is asynchronous, and the console of the plugin
+ * (if any). Resolving plugins when processing jobs does not require any
+ * reflection.
+ */
+public final class PluginRegistry {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(PluginRegistry.class);
+
+    // Holds an instance of PluginRegistry
+    private static final PluginRegistry INSTANCE = new PluginRegistry();
+
+    private static final MethodType DEFAULT_CONSTRUCTOR = MethodType.methodType(void.class);
+    private static final MethodType FACTORY = MethodType.methodType(Object.class);
+
+    private final Set<String> providersConfigured;
+    private final Set<String> publishersConfigured;
+    private final Set<String> remoteProviders;
+    private final Map<String, RegisteredPlugin> providers;
+    private final Map<String, RegisteredPlugin> publishers;
+    private final List<PluginMetadata> providerMetadata;
+    private final List<PluginMetadata> publisherMetadata;
+
+    private PluginRegistry() {
+        LOGGER.info("Initializing PluginRegistry");
+        providersConfigured = parse(Config.getInstance().getProperty(HakbotConfigKey.PROVIDERS_ENABLED));
+        publishersConfigured = parse(Config.getInstance().getProperty(HakbotConfigKey.PUBLISHERS_ENABLED));
+        remoteProviders = parse(Config.getInstance().getProperty(HakbotConfigKey.ORBIT_PROVIDERS));
+        providers = register(providersConfigured);
+        publishers = register(publishersConfigured);
+        providerMetadata = collectMetadata(providers);
+        publisherMetadata = collectMetadata(publishers);
+    }
+
+    /**
+     * Return an instance of the PluginRegistry instance
+     * @return a PluginRegistry instance
+     */
+    public static PluginRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the registered plugin of the specified type and class name, or null if
+     * the plugin is not enabled or could not be resolved.
+     */
+    public RegisteredPlugin get(Plugin.Type type, String className) {
+        if (className == null) {
+            return null;
+        }
+        return (type == Plugin.Type.PROVIDER) ? providers.get(className) : publishers.get(className);
+    }
+
+    /**
+     * Determines if the specified class name is enabled as a plugin of the specified type.
+     * Enabled plugins may not be registered if their class could not be resolved.
+     */
+    public boolean isEnabled(Plugin.Type type, String className) {
+        return (type == Plugin.Type.PROVIDER) ? providersConfigured.contains(className) : publishersConfigured.contains(className);
+    }
+
+    /**
+     * Determines if jobs of the specified provider are processed by remote workers which
+     * claim them, rather than by this server. Such providers must also be enabled.
+     */
+    public boolean isRemotelyProcessed(String className) {
+        return remoteProviders.contains(className) && providersConfigured.contains(className);
+    }
+
+    /**
+     * Returns the metadata of all registered providers, in the order they are enabled.
+     */
+    public List<PluginMetadata> getProviderMetadata() {
+        return providerMetadata;
+    }
+
+    /**
+     * Returns the metadata of all registered publishers, in the order they are enabled.
+     */
+    public List<PluginMetadata> getPublisherMetadata() {
+        return publisherMetadata;
+    }
+
+    /**
+     * Returns the classes of all registered providers, in the order they are enabled.
+     */
+    public List<Class> getProviderClasses() {
+        return collectClasses(providers);
+    }
+
+    /**
+     * Returns the classes of all registered publishers, in the order they are enabled.
+     */
+    public List<Class> getPublisherClasses() {
+        return collectClasses(publishers);
+    }
+
+    private static Set<String> parse(String classes) {
+        final Set<String> set = new LinkedHashSet<>();
+        if (classes != null) {
+            for (String clazz: classes.split(",")) {
+                if (!clazz.trim().isEmpty()) {
+                    set.add(clazz.trim());
+                }
+            }
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    private Map<String, RegisteredPlugin> register(Set<String> classNames) {
+        final Map<String, RegisteredPlugin> map = new LinkedHashMap<>();
+        for (String className: classNames) {
+            try {
+                final Class<?> clazz = Class.forName(className, true, this.getClass().getClassLoader());
+                map.put(className, new RegisteredPlugin(clazz));
+            } catch (ClassNotFoundException e) {
+                LOGGER.error("Cannot resolve " + className);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                LOGGER.error("Cannot resolve a public no-argument constructor for " + className);
+            } catch (RuntimeException e) {
+                LOGGER.error("Cannot register " + className + ". " + e.getMessage());
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static List<PluginMetadata> collectMetadata(Map<String, RegisteredPlugin> map) {
+        final List<PluginMetadata> list = new ArrayList<>();
+        for (RegisteredPlugin plugin: map.values()) {
+            list.add(plugin.getMetadata());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private List<Class> collectClasses(Map<String, RegisteredPlugin> map) {
+        final List<Class> list = new ArrayList<>();
+        for (RegisteredPlugin plugin: map.values()) {
+            list.add(plugin.getPluginClass());
+        }
+        return list;
+    }
+
+    /**
+     * Creates a factory from the public no-argument constructor of the specified class.
+     */
+    private static MethodHandle createFactory(Class<?> clazz) throws NoSuchMethodException, IllegalAccessException {
+        return MethodHandles.publicLookup().findConstructor(clazz, DEFAULT_CONSTRUCTOR).asType(FACTORY);
+    }
+
+    /**
+     * Invokes a factory created by {@link #createFactory(Class)}.
+     */
+    private static Object invokeFactory(MethodHandle factory) {
+        try {
+            return (Object) factory.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * A provider or publisher resolved by the PluginRegistry.
+     */
+    public static final class RegisteredPlugin {
+
+        private final Class<?> pluginClass;
+        private final MethodHandle factory;
+        private final PluginMetadata metadata;
+        private final boolean asynchronous;
+        private final Class<? extends Console> consoleClass;
+        private final MethodHandle consoleFactory;
+
+        private RegisteredPlugin(Class<?> pluginClass) throws NoSuchMethodException, IllegalAccessException {
+            this.pluginClass = pluginClass;
+            this.factory = createFactory(pluginClass);
+            final Plugin plugin = (Plugin) invokeFactory(factory);
+            this.metadata = new PluginMetadata(plugin);
+            this.asynchronous = AsynchronousProvider.class.isAssignableFrom(pluginClass);
+            if (plugin instanceof ConsoleIdentifier && ((ConsoleIdentifier) plugin).getConsoleClass() != null) {
+                this.consoleClass = ((ConsoleIdentifier) plugin).getConsoleClass();
+                this.consoleFactory = createFactory(consoleClass);
+            } else {
+                this.consoleClass = null;
+                this.consoleFactory = null;
+            }
+        }
+
+        public Class<?> getPluginClass() {
+            return pluginClass;
+        }
+
+        public PluginMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * Determines if the plugin is an AsynchronousProvider.
+         */
+        public boolean isAsynchronous() {
+            return asynchronous;
+        }
+
+        public boolean hasConsole() {
+            return consoleFactory != null;
+        }
+
+        public Class<? extends Console> getConsoleClass() {
+            return consoleClass;
+        }
+
+        /**
+         * Creates a new instance of the plugin.
+         */
+        @SuppressWarnings("unchecked")
+        public <T extends Plugin> T newInstance() {
+            return (T) invokeFactory(factory);
+        }
+
+        /**
+         * Creates a new instance of the console of the plugin, or returns null
+         * if the plugin does not have a console.
+         */
+        public Console newConsole() {
+            return (consoleFactory == null) ? null : (Console) invokeFactory(consoleFactory);
+        }
+    }
+}
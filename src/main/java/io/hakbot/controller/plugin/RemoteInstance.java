@@ -29,12 +29,14 @@ public class RemoteInstance implements Serializable {
     private static final Logger LOGGER = Logger.getLogger(RemoteInstance.class);
 
     private String alias;
+    private String group;
     private URL url;
     private String username;
     private String password;
     private String apiKey;
     private String token;
     private boolean validateCertificates;
+    private int maxConcurrent;
 
     public String getAlias() {
         return alias;
@@ -44,6 +46,14 @@ public class RemoteInstance implements Serializable {
         this.alias = alias;
     }
 
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -103,4 +113,16 @@ public class RemoteInstance implements Serializable {
     public void setValidateCertificates(boolean validateCertificates) {
         this.validateCertificates = validateCertificates;
     }
+
+    /**
+     * Returns the maximum number of jobs the instance may process at the same
+     * time. A value of zero (the default) does not limit the instance.
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
 }
@@ -32,11 +32,13 @@ import java.util.Map;
  *
  *     # Properties for instance1
  *     provider.${pluginId}.instance1.alias=My-Scanner
+ *     provider.${pluginId}.instance1.group=My-Scanner-Pool
  *     provider.${pluginId}.instance1.url=http://scanner1.example.com
  *     provider.${pluginId}.instance1.username=${username}
  *     provider.${pluginId}.instance1.password=${password}
  *     provider.${pluginId}.instance1.apikey=${apikey}
  *     provider.${pluginId}.instance1.token=${token}
+ *     provider.${pluginId}.instance1.maxConcurrent=${maxConcurrent}
  *
  *     # Properties for instance2
  *     ...
@@ -72,10 +74,19 @@ public class RemoteInstanceAutoConfig {
         final String type = pluginType.name().toLowerCase();
         final RemoteInstance instance = new RemoteInstance();
         instance.setAlias(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".alias")));
+        instance.setGroup(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".group")));
         instance.setUsername(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".username")));
         instance.setPassword(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".password")));
         instance.setApiKey(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".apikey")));
         instance.setToken(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".token")));
+        final String maxConcurrent = StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".maxConcurrent"));
+        if (maxConcurrent != null) {
+            try {
+                instance.setMaxConcurrent(Integer.parseInt(maxConcurrent));
+            } catch (NumberFormatException e) {
+                LOGGER.error("The maximum number of concurrent jobs specified for the server instance is not valid. " + e.getMessage());
+            }
+        }
         try {
             instance.setURL(new URL(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".url"))));
         } catch (MalformedURLException e) {
@@ -20,7 +20,7 @@ import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.controller.plugin.Console;
-import io.hakbot.controller.plugin.ConsoleIdentifier;
+import io.hakbot.controller.plugin.PluginRegistry.RegisteredPlugin;
 import io.hakbot.controller.workers.ExpectedClassResolver;
 import io.hakbot.controller.workers.ExpectedClassResolverException;
 import io.swagger.annotations.Api;
@@ -65,20 +65,16 @@ public class ConsoleResource extends BaseResource {
             // Principal has access to job
             try {
                 final ExpectedClassResolver resolver = new ExpectedClassResolver();
-                final Class pluginClass = resolver.resolveProvider(job);
-                if (ConsoleIdentifier.class.isAssignableFrom(pluginClass)) {
+                final RegisteredPlugin plugin = resolver.resolveRegisteredProvider(job);
+                if (plugin.hasConsole()) {
                     final Map queryParams = getUriInfo().getQueryParameters();
 
-                    // Lookup the corresponding console class from the plugin instance
-                    final ConsoleIdentifier ci = (ConsoleIdentifier) pluginClass.newInstance();
-                    final Class consoleClass = ci.getConsoleClass();
-
-                    // Execute the console sending the job and query parameters (if any) to it
-                    final Console console = (Console) consoleClass.newInstance();
+                    // Execute the console of the plugin sending the job and query parameters (if any) to it
+                    final Console console = plugin.newConsole();
                     final Object response = console.console(job, queryParams);
                     return Response.ok(response).build();
                 }
-            } catch (ClassNotFoundException | ExpectedClassResolverException | InstantiationException | IllegalAccessException e) {
+            } catch (ClassNotFoundException | ExpectedClassResolverException e) {
                 LOGGER.error(e.getMessage());
             }
         } else {
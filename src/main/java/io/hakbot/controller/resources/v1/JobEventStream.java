@@ -0,0 +1,232 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.resources.v1;
+
+import alpine.logging.Logger;
+import io.hakbot.controller.model.Job;
+import io.hakbot.controller.model.JobEvent;
+import io.hakbot.controller.model.SystemAccount;
+import io.hakbot.controller.persistence.QueryManager;
+import io.hakbot.controller.workers.JobSubscriptionRegistry;
+import io.hakbot.controller.workers.State;
+import io.hakbot.util.JsonUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.glassfish.jersey.server.ChunkedOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A JobEventStream sends the events of a job to a client as server-sent events. The
+ * request is suspended while the stream is open, so that a waiting client does not hold
+ * a container thread. Events are pushed as they are committed, by a small shared pool of
+ * threads, which also sends keep-alive comments and detects clients which have gone
+ * away. The stream ends once the job reaches its last state.
+ *
+ * Events committed by different threads may arrive out of order, and events may be
+ * dropped if the client falls behind. In both cases the stream catches up from the event
+ * log of the job.
+ */
+final class JobEventStream {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(JobEventStream.class);
+
+    private static final int KEEP_ALIVE_INTERVAL = 15;
+    private static final int MAX_PENDING_EVENTS = 1000;
+    private static final int EVENT_BATCH_SIZE = 500;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                final Thread thread = new Thread(r, "Hakbot-JobEventStream-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final String uuid;
+    private final boolean hasPublisher;
+    private final ChunkedOutput<String> output = new ChunkedOutput<>(String.class);
+    private final BlockingQueue<JobEvent> pending = new LinkedBlockingQueue<>(MAX_PENDING_EVENTS);
+    private final AtomicBoolean overflow = new AtomicBoolean();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private JobSubscriptionRegistry.Subscription subscription;
+    private ScheduledFuture<?> keepAlive;
+    private long sequence;
+    private boolean closed;
+
+    private JobEventStream(Job job, long after) {
+        this.uuid = job.getUuid();
+        this.hasPublisher = StringUtils.isNotEmpty(job.getPublisher());
+        this.sequence = after;
+    }
+
+    /**
+     * Opens a stream of the events of the job which occur after the specified sequence number.
+     * @param job the job to stream the events of
+     * @param after the sequence number of the last event the client has received
+     * @return the output to return from the resource method
+     */
+    static ChunkedOutput<String> open(Job job, long after) {
+        final JobEventStream stream = new JobEventStream(job, after);
+        stream.start();
+        return stream.output;
+    }
+
+    private synchronized void start() {
+        // Subscribe before the events are read, so that events committed in between are not missed
+        subscription = JobSubscriptionRegistry.getInstance().subscribe(uuid, event -> {
+            if (!pending.offer(event)) {
+                overflow.set(true);
+            }
+            scheduleDrain();
+        });
+        keepAlive = EXECUTOR.scheduleWithFixedDelay(this::keepAlive, KEEP_ALIVE_INTERVAL, KEEP_ALIVE_INTERVAL, TimeUnit.SECONDS);
+        EXECUTOR.execute(this::catchUp);
+    }
+
+    /**
+     * Schedules the pending events to be sent, unless they already are. Listeners must not
+     * block the committing thread, so events are never sent by the listener itself.
+     */
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            EXECUTOR.execute(this::drain);
+        }
+    }
+
+    /**
+     * Sends the events of the job which have not been sent yet from the event log.
+     */
+    private synchronized void catchUp() {
+        if (closed) {
+            return;
+        }
+        pending.clear();
+        overflow.set(false);
+        final State state;
+        try (QueryManager qm = new QueryManager()) {
+            final Job job = qm.getJob(uuid, new SystemAccount());
+            if (job == null) {
+                close();
+                return;
+            }
+            state = job.getState();
+            long last = sequence;
+            List<JobEvent> events;
+            do {
+                events = qm.getJobEvents(job, last, EVENT_BATCH_SIZE);
+                for (JobEvent event: events) {
+                    send(event);
+                    last = event.getSequence();
+                }
+            } while (events.size() == EVENT_BATCH_SIZE && !closed);
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to read the events of job " + uuid + ": " + e.getMessage());
+            close();
+            return;
+        }
+        if (isLastState(state)) {
+            close();
+        }
+    }
+
+    /**
+     * Sends the pending events, catching up from the event log if events were dropped
+     * or arrived out of order.
+     */
+    private void drain() {
+        synchronized (this) {
+            draining.set(false);
+            JobEvent event;
+            while (!closed && (event = pending.poll()) != null) {
+                if (overflow.get() || event.getSequence() > sequence + 1) {
+                    catchUp();
+                } else {
+                    send(event);
+                }
+            }
+        }
+    }
+
+    private synchronized void keepAlive() {
+        write(": keep-alive\n\n");
+    }
+
+    /**
+     * Sends the event, unless it has been sent already. The stream is closed once the
+     * job reaches its last state.
+     */
+    private void send(JobEvent event) {
+        if (closed || event.getSequence() <= sequence) {
+            return;
+        }
+        write("id: " + event.getSequence() + "\n"
+                + "event: " + (event.getToState() != null ? "state" : "message") + "\n"
+                + "data: " + JsonUtil.jsonStringFromObject(event) + "\n\n");
+        sequence = event.getSequence();
+        if (event.getToState() != null && isLastState(event.getToState())) {
+            close();
+        }
+    }
+
+    private void write(String chunk) {
+        if (closed) {
+            return;
+        }
+        try {
+            output.write(chunk);
+        } catch (IOException e) {
+            // The client has gone away
+            close();
+        }
+    }
+
+    private synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        subscription.close();
+        keepAlive.cancel(false);
+        pending.clear();
+        try {
+            output.close();
+        } catch (IOException e) {
+            // The client has gone away
+        }
+    }
+
+    /**
+     * Determines if no further events are expected for a job in the specified state.
+     */
+    static boolean isLastState(State state, boolean hasPublisher) {
+        return state.isFinal() || (state == State.COMPLETED && !hasPublisher);
+    }
+
+    private boolean isLastState(State state) {
+        return isLastState(state, hasPublisher);
+    }
+
+}
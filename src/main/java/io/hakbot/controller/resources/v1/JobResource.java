@@ -23,26 +23,52 @@ import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.event.JobUpdateEvent;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.model.JobEvent;
+import io.hakbot.controller.persistence.JobFilter;
 import io.hakbot.controller.persistence.QueryManager;
+import io.hakbot.controller.plugin.PluginRegistry;
+import io.hakbot.controller.workers.JobArrivalMonitor;
+import io.hakbot.controller.workers.JobSubscriptionRegistry;
 import io.hakbot.controller.workers.State;
 import io.hakbot.util.JsonUtil;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.Authorization;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.glassfish.jersey.server.ChunkedOutput;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Path("/v1/job")
 @Api(value = "job", authorizations = {
@@ -51,18 +77,54 @@ import java.util.List;
 public class JobResource extends BaseResource {
 
     private static final int MAX_QUEUE_SIZE = Config.getInstance().getPropertyAsInt(HakbotConfigKey.MAX_QUEUE_SIZE);
+    private static final int PAGE_SIZE = Config.getInstance().getPropertyAsInt(HakbotConfigKey.JOB_PAGE_SIZE);
+    private static final int PAGE_MAX_SIZE = Config.getInstance().getPropertyAsInt(HakbotConfigKey.JOB_PAGE_MAX_SIZE);
+    private static final String EVENT_SEQUENCE_HEADER = "X-Hakbot-Event-Sequence";
+    private static final int EVENT_BATCH_SIZE = 500;
+    private static final String SERVER_SENT_EVENTS = "text/event-stream";
+    private static final int MAX_WAIT = 300;
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @ApiOperation(
             value = "Returns all job",
-            notes = "Returns a list of all jobs ordered by the time the job was created.",
+            notes = "Returns a list of jobs ordered by the time the job was created, most recent first. "
+                    + "The list may be filtered and paginated. To retrieve the next page, specify the UUID "
+                    + "of the last job of the current page as the 'after' parameter. Job messages are not "
+                    + "included and may be retrieved individually.",
             response = Job.class,
             responseContainer = "List"
     )
-    public Response getAllJobs() {
+    public Response getAllJobs(
+            @ApiParam(value = "Only return jobs in this state", allowableValues = "Created,Unavailable,In Queue,In Progress,Completed,Published,Failed,Canceled")
+            @QueryParam("state") String state,
+            @ApiParam(value = "Only return jobs using this provider (fully qualified class name)")
+            @QueryParam("provider") String provider,
+            @ApiParam(value = "Only return jobs using this publisher (fully qualified class name)")
+            @QueryParam("publisher") String publisher,
+            @ApiParam(value = "Only return jobs created at or after this time (milliseconds since epoch)")
+            @QueryParam("from") Long from,
+            @ApiParam(value = "Only return jobs created before this time (milliseconds since epoch)")
+            @QueryParam("to") Long to,
+            @ApiParam(value = "Only return jobs created before the job with this UUID")
+            @QueryParam("after") String after,
+            @ApiParam(value = "The maximum number of jobs to return. Defaults to the configured page size and is capped at the configured maximum")
+            @DefaultValue("0") @QueryParam("limit") int limit) {
+        final JobFilter filter = new JobFilter()
+                .provider(StringUtils.trimToNull(provider))
+                .publisher(StringUtils.trimToNull(publisher))
+                .from(from != null ? new Date(from) : null)
+                .to(to != null ? new Date(to) : null);
+        if (StringUtils.isNotBlank(state)) {
+            final State jobState = State.parse(state.trim());
+            if (jobState == null) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Invalid state: " + state).build();
+            }
+            filter.state(jobState);
+        }
         try (QueryManager qm = new QueryManager()) {
-            final List<Job> jobs = qm.getJobs(QueryManager.OrderDirection.DESC, getPrincipal());
+            final int pageSize = (limit > 0) ? Math.min(limit, PAGE_MAX_SIZE) : PAGE_SIZE;
+            final List<Job> jobs = qm.getJobs(filter, StringUtils.trimToNull(after), pageSize, getPrincipal());
             return Response.ok(jobs).build();
         }
     }
@@ -75,12 +137,55 @@ public class JobResource extends BaseResource {
             notes = "Returns a specific job by it's UUID.",
             response = Job.class
     )
-    public Response getJobByUuid(
+    public void getJobByUuid(
+            @Suspended final AsyncResponse response,
             @ApiParam(value = "The UUID of the job", required = true)
-            @PathParam("uuid") String uuid) {
+            @PathParam("uuid") String uuid,
+            @ApiParam(value = "Wait until the job reaches this state, or can no longer reach it", allowableValues = "In Queue,In Progress,Completed,Published,Failed,Canceled")
+            @QueryParam("waitFor") String waitFor,
+            @ApiParam(value = "The maximum number of seconds to wait", defaultValue = "30")
+            @DefaultValue("30") @QueryParam("timeout") int timeout) {
+        final Principal principal = getPrincipal();
+        if (StringUtils.isBlank(waitFor)) {
+            response.resume(jobResponse(uuid, principal));
+            return;
+        }
+        final State target = State.parse(waitFor.trim());
+        if (target == null || timeout < 0) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).entity("Invalid state: " + waitFor).build());
+            return;
+        }
+        // Subscribe before the job is read, so that a state change in between is not missed
+        final AtomicBoolean resumed = new AtomicBoolean();
+        final JobSubscriptionRegistry.Subscription subscription = JobSubscriptionRegistry.getInstance().subscribe(uuid, event -> {
+            if (event.getToState() != null && isReachedOrPassed(event.getToState(), target) && resumed.compareAndSet(false, true)) {
+                // Listeners must not block the committing thread
+                CompletableFuture.runAsync(() -> response.resume(jobResponse(uuid, principal)));
+            }
+        });
+        response.register((CompletionCallback) throwable -> subscription.close());
+        response.setTimeout(Math.min(timeout, MAX_WAIT), TimeUnit.SECONDS);
+        response.setTimeoutHandler(r -> {
+            if (resumed.compareAndSet(false, true)) {
+                r.resume(jobResponse(uuid, principal));
+            }
+        });
         final Job job;
         try (QueryManager qm = new QueryManager()) {
-            job = qm.getJob(uuid, getPrincipal());
+            job = qm.getJob(uuid, principal);
+        }
+        if ((job == null || isReachedOrPassed(job.getState(), target)) && resumed.compareAndSet(false, true)) {
+            response.resume(job == null ? Response.status(Response.Status.NOT_FOUND).build() : Response.ok(job).build());
+        }
+    }
+
+    /**
+     * Returns the response for the specified job, as returned by {@link #getJobByUuid}.
+     */
+    private Response jobResponse(String uuid, Principal principal) {
+        final Job job;
+        try (QueryManager qm = new QueryManager()) {
+            job = qm.getJob(uuid, principal);
         }
         if (job == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
@@ -89,23 +194,129 @@ public class JobResource extends BaseResource {
         }
     }
 
+    /**
+     * Determines if a job in the specified state has reached the target, or can no longer reach it.
+     */
+    private static boolean isReachedOrPassed(State state, State target) {
+        return state == target || !state.canReach(target);
+    }
+
     @GET
     @Path("{uuid}/message")
     @Produces(MediaType.TEXT_PLAIN)
     @ApiOperation(
             value = "Returns the messages produced by the job",
-            notes = "Returns the messages produced by the job. Depending on the plugin, the amount of messages produced may be large",
+            notes = "Returns the messages produced by the job, one per line. Depending on the plugin, the amount of "
+                    + "messages produced may be large, therefore messages are streamed. To tail the messages, specify "
+                    + "the sequence number returned in the " + EVENT_SEQUENCE_HEADER + " header as the 'after' parameter.",
             response = String.class
     )
     public Response getJobMessage(
             @ApiParam(value = "The UUID of the job", required = true)
-            @PathParam("uuid") String uuid) {
+            @PathParam("uuid") String uuid,
+            @ApiParam(value = "Only return messages after the event with this sequence number", defaultValue = "0")
+            @DefaultValue("0") @QueryParam("after") long after) {
+        final Job job;
+        final long lastSequence;
+        try (QueryManager qm = new QueryManager()) {
+            job = qm.getJob(uuid, Job.FetchGroup.MESSAGE, getPrincipal());
+            if (job == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            lastSequence = qm.getLastJobEventSequence(job);
+        }
+        // Messages logged prior to the event log are returned ahead of the events
+        final String legacyMessage = (after <= 0) ? StringUtils.trimToNull(job.getMessage()) : null;
+        final StreamingOutput output = out -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            boolean first = true;
+            if (legacyMessage != null) {
+                writer.write(legacyMessage);
+                first = false;
+            }
+            try (QueryManager qm = new QueryManager()) {
+                long sequence = after;
+                while (sequence < lastSequence) {
+                    final List<JobEvent> events = qm.getJobEvents(job, sequence, EVENT_BATCH_SIZE);
+                    if (events.isEmpty()) {
+                        break;
+                    }
+                    for (JobEvent event: events) {
+                        if (event.getSequence() > lastSequence) {
+                            break;
+                        }
+                        if (!first) {
+                            writer.write("\n");
+                        }
+                        writer.write(formatter.format(event.getTimestamp()) + " - " + event.getText());
+                        first = false;
+                        sequence = event.getSequence();
+                    }
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        };
+        return Response.ok(output).header(EVENT_SEQUENCE_HEADER, lastSequence).build();
+    }
+
+    @GET
+    @Path("{uuid}/events")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            value = "Returns the events logged by the job",
+            notes = "Returns the events logged by the job in the order they occurred. Events include processing messages "
+                    + "and state transitions.",
+            response = JobEvent.class,
+            responseContainer = "List"
+    )
+    public Response getJobEvents(
+            @ApiParam(value = "The UUID of the job", required = true)
+            @PathParam("uuid") String uuid,
+            @ApiParam(value = "Only return events after the event with this sequence number", defaultValue = "0")
+            @DefaultValue("0") @QueryParam("after") long after,
+            @ApiParam(value = "The maximum number of events to return. Unlimited if not specified")
+            @DefaultValue("0") @QueryParam("limit") int limit) {
         try (QueryManager qm = new QueryManager()) {
-            final String message = qm.getJob(uuid, getPrincipal()).getMessage();
-            return Response.ok(message).build();
+            final Job job = qm.getJob(uuid, getPrincipal());
+            if (job == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            final List<JobEvent> events = qm.getJobEvents(job, after, limit);
+            return Response.ok(events).build();
         }
     }
 
+    @GET
+    @Path("{uuid}/events")
+    @Produces(SERVER_SENT_EVENTS + ";qs=0.5")
+    @ApiOperation(
+            value = "Streams the events logged by the job",
+            notes = "Streams the events logged by the job as server-sent events, as they occur. Events which occurred "
+                    + "after the event identified by the Last-Event-ID header, or the 'after' parameter, are sent first. "
+                    + "The stream ends once the job reaches a final state, or is completed and has no publisher.",
+            response = JobEvent.class,
+            responseContainer = "List"
+    )
+    public ChunkedOutput<String> streamJobEvents(
+            @ApiParam(value = "The UUID of the job", required = true)
+            @PathParam("uuid") String uuid,
+            @ApiParam(value = "Only stream events after the event with this sequence number", defaultValue = "0")
+            @DefaultValue("0") @QueryParam("after") long after,
+            @HeaderParam("Last-Event-ID") String lastEventId,
+            @Context HttpServletResponse servletResponse) {
+        final Job job;
+        try (QueryManager qm = new QueryManager()) {
+            job = qm.getJob(uuid, getPrincipal());
+        }
+        if (job == null) {
+            throw new NotFoundException();
+        }
+        servletResponse.setHeader("Cache-Control", "no-cache");
+        return JobEventStream.open(job, NumberUtils.toLong(lastEventId, after));
+    }
+
     @GET
     @Path("{uuid}/payload/provider")
     @Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
@@ -117,7 +328,8 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The UUID of the job", required = true)
             @PathParam("uuid") String uuid,
             @ApiParam(value = "Modifies response behavior", defaultValue = "0", allowableValues = "0,1" )
-            @DefaultValue("0") @QueryParam("q") int q) {
+            @DefaultValue("0") @QueryParam("q") int q,
+            @Context HttpHeaders headers) {
         try (QueryManager qm = new QueryManager()) {
             final Job job = qm.getJob(uuid, getPrincipal());
             if (job == null) {
@@ -127,11 +339,10 @@ public class JobResource extends BaseResource {
             if (artifact == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-            final byte[] contents = artifact.getContents();
             if (q == 0) {
-                return Response.ok(contents, MediaType.TEXT_PLAIN).build();
+                return artifactResponse(artifact, MediaType.TEXT_PLAIN, headers).build();
             } else if (q == 1) {
-                return Response.ok(contents, MediaType.APPLICATION_OCTET_STREAM)
+                return artifactResponse(artifact, MediaType.APPLICATION_OCTET_STREAM, headers)
                         .header("Content-Disposition", "attachment; filename=\"" + uuid + "-provider-payload" + "\"")
                         .build();
             }
@@ -150,7 +361,8 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The UUID of the job", required = true)
             @PathParam("uuid") String uuid,
             @ApiParam(value = "Modifies response behavior", defaultValue = "0", allowableValues = "0,1" )
-            @DefaultValue("0") @QueryParam("q") int q) {
+            @DefaultValue("0") @QueryParam("q") int q,
+            @Context HttpHeaders headers) {
         try (QueryManager qm = new QueryManager()) {
             final Job job = qm.getJob(uuid, getPrincipal());
             if (job == null) {
@@ -160,11 +372,10 @@ public class JobResource extends BaseResource {
             if (artifact == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-            final byte[] contents = artifact.getContents();
             if (q == 0) {
-                return Response.ok(contents, MediaType.TEXT_PLAIN).build();
+                return artifactResponse(artifact, MediaType.TEXT_PLAIN, headers).build();
             } else if (q == 1) {
-                return Response.ok(contents, MediaType.APPLICATION_OCTET_STREAM)
+                return artifactResponse(artifact, MediaType.APPLICATION_OCTET_STREAM, headers)
                         .header("Content-Disposition", "attachment; filename=\"" + uuid + "-publisher-payload" + "\"")
                         .build();
             }
@@ -183,7 +394,8 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The UUID of the job", required = true)
             @PathParam("uuid") String uuid,
             @ApiParam(value = "Modifies response behavior", defaultValue = "0", allowableValues = "0,1,2" )
-            @DefaultValue("0") @QueryParam("q") int q) {
+            @DefaultValue("0") @QueryParam("q") int q,
+            @Context HttpHeaders headers) {
         try (QueryManager qm = new QueryManager()) {
             final Job job = qm.getJob(uuid, getPrincipal());
             if (job == null) {
@@ -193,11 +405,10 @@ public class JobResource extends BaseResource {
             if (artifact == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-            final byte[] contents = artifact.getContents();
             if (q == 0) {
-                return Response.ok(contents, MediaType.TEXT_PLAIN).build();
+                return artifactResponse(artifact, MediaType.TEXT_PLAIN, headers).build();
             } else if (q == 1) {
-                return Response.ok(contents, MediaType.APPLICATION_OCTET_STREAM)
+                return artifactResponse(artifact, MediaType.APPLICATION_OCTET_STREAM, headers)
                         .header("Content-Disposition", "attachment; filename=\"" + artifact.getFilename() + "\"")
                         .build();
             }
@@ -241,7 +452,13 @@ public class JobResource extends BaseResource {
 
             final Job job = qm.createJob(name, providerClass, providerPayload, publisherClass, publisherPayload, apiKey);
             // At this point, the job has a state of CREATED, which is what we want our response to be.
-            EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.IN_QUEUE));
+            if (PluginRegistry.getInstance().isRemotelyProcessed(providerClass)) {
+                // The job remains CREATED, which the JobManager ignores, until a remote worker claims it
+                JobArrivalMonitor.getInstance().jobCreated();
+            } else {
+                // Once the IN_QUEUE state is committed, the job is handed to the JobManager and dispatched.
+                EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.IN_QUEUE));
+            }
             return Response.ok(job).build();
         }
     }
@@ -284,4 +501,58 @@ public class JobResource extends BaseResource {
         }
     }
 
+    /**
+     * Returns a response which streams the contents of the artifact directly from
+     * storage. Compressed contents are sent as is when the client accepts the encoding,
+     * otherwise they are decompressed as they are written. The contents are read when
+     * the response is written, using a QueryManager separate from the one used by the
+     * request.
+     */
+    private Response.ResponseBuilder artifactResponse(final JobArtifact artifact, String mediaType, HttpHeaders headers) {
+        final boolean encoded = artifact.getEncoding() != null && acceptsEncoding(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING), artifact.getEncoding());
+        final StreamingOutput contents = output -> {
+            try (QueryManager qm = new QueryManager()) {
+                qm.copyJobArtifactContents(artifact, output, !encoded);
+            }
+        };
+        final Response.ResponseBuilder builder = Response.ok(contents, mediaType);
+        if (artifact.getEncoding() != null) {
+            builder.header("Vary", HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (encoded) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, artifact.getEncoding());
+            if (artifact.getSize() != null) {
+                builder.header(HttpHeaders.CONTENT_LENGTH, artifact.getSize());
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Determines if the client accepts the specified content encoding. Encodings with
+     * a quality value of zero are not accepted.
+     * @param values the values of the Accept-Encoding headers of the request, or null if there are none
+     */
+    static boolean acceptsEncoding(List<String> values, String encoding) {
+        if (values == null) {
+            return false;
+        }
+        for (String value: values) {
+            for (String element: value.split(",")) {
+                final String[] params = element.split(";");
+                if (!params[0].trim().equalsIgnoreCase(encoding)) {
+                    continue;
+                }
+                for (int i = 1; i < params.length; i++) {
+                    final String param = params[i].trim().replace(" ", "");
+                    if (param.matches("q=0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
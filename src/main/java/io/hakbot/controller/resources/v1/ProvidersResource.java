@@ -17,7 +17,7 @@
 package io.hakbot.controller.resources.v1;
 
 import io.hakbot.controller.plugin.PluginMetadata;
-import io.hakbot.controller.workers.ExpectedClassResolver;
+import io.hakbot.controller.plugin.PluginRegistry;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.Authorization;
@@ -26,7 +26,6 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
 import java.util.List;
 
 @Path("/v1/providers")
@@ -44,13 +43,7 @@ public class ProvidersResource {
             responseContainer = "List"
     )
     public Response getAll() {
-        final List<PluginMetadata> list = new ArrayList<>();
-        final ExpectedClassResolver resolver = new ExpectedClassResolver();
-        final List<Class> classes = resolver.getResolvedProviders();
-        for (Class clazz: classes) {
-            final PluginMetadata meta = new PluginMetadata(clazz);
-            list.add(meta);
-        }
+        final List<PluginMetadata> list = PluginRegistry.getInstance().getProviderMetadata();
         return Response.ok(list).build();
     }
 
@@ -16,21 +16,38 @@
  */
 package io.hakbot.controller.resources.v1;
 
+import alpine.Config;
+import alpine.model.ApiKey;
+import alpine.model.UserPrincipal;
+import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.model.Job;
+import io.hakbot.controller.plugin.PluginRegistry;
 import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.controller.workers.ExpectedClassResolver;
+import io.hakbot.controller.workers.JobArrivalMonitor;
 import io.hakbot.controller.workers.State;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.Authorization;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.security.Principal;
+import java.util.Date;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Path("/v1/orbit")
 @Api(value = "orbit", authorizations = {
@@ -38,12 +55,17 @@ import java.util.List;
 })
 public class RemoteJobResource extends BaseResource {
 
+    private static final long LEASE_DURATION = TimeUnit.SECONDS.toMillis(Config.getInstance().getPropertyAsInt(HakbotConfigKey.ORBIT_LEASE_DURATION));
+    private static final int MAX_WAIT = Config.getInstance().getPropertyAsInt(HakbotConfigKey.ORBIT_CLAIM_MAX_WAIT);
+    private static final int MAX_CLAIM = 100;
+    private static final String LEASE_HEADER = "X-Hakbot-Lease";
+
     @GET
     @Path("/pickup/{class}")
     @Produces(MediaType.APPLICATION_JSON)
     @ApiOperation(
             value = "Returns jobs by class name",
-            notes = "Returns jobs by class name",
+            notes = "Returns the most recently created job of the class without claiming it. Workers should claim jobs instead.",
             response = Job.class
     )
     public Response getJobByClass(
@@ -66,4 +88,134 @@ public class RemoteJobResource extends BaseResource {
 
     }
 
+    @POST
+    @Path("/claim/{class}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            value = "Claims jobs by class name",
+            notes = "Claims the oldest jobs of the class which have not been claimed, or whose lease has expired. "
+                    + "Only jobs of providers processed by remote workers may be claimed. "
+                    + "Claimed jobs are in progress and are held under the lease returned in the X-Hakbot-Lease header "
+                    + "until it expires, unless it is renewed. If no job is available, the request waits up to the "
+                    + "specified number of seconds for one to become available, and returns no content if none did.",
+            response = Job.class,
+            responseContainer = "List"
+    )
+    public void claimJobs(
+            @Suspended final AsyncResponse response,
+            @ApiParam(value = "The name of the class", required = true)
+            @PathParam("class") String classname,
+            @ApiParam(value = "The maximum number of jobs to claim")
+            @DefaultValue("1") @QueryParam("max") int max,
+            @ApiParam(value = "The number of seconds to wait for a job to become available")
+            @DefaultValue("0") @QueryParam("wait") int wait) {
+
+        final ExpectedClassResolver resolver = new ExpectedClassResolver();
+        if (!resolver.isClassAllowed(classname) || !PluginRegistry.getInstance().isRemotelyProcessed(classname)
+                || max < 1 || wait < 0) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+
+        final Principal principal = getPrincipal();
+        final Claim claim = new Claim(response, classname, Math.min(max, MAX_CLAIM), getLeaseOwner(principal), principal);
+        if (wait == 0) {
+            claim.attempt(true);
+            return;
+        }
+        // Subscribe before looking for jobs, so that a job which becomes available in between is not missed
+        final JobArrivalMonitor.Subscription subscription = JobArrivalMonitor.getInstance().subscribe(() ->
+                // Listeners must not block the thread of the monitor
+                CompletableFuture.runAsync(() -> claim.attempt(false))
+        );
+        response.register((CompletionCallback) throwable -> subscription.close());
+        response.setTimeout(Math.min(wait, MAX_WAIT), TimeUnit.SECONDS);
+        response.setTimeoutHandler(r -> claim.attempt(true));
+        claim.attempt(false);
+    }
+
+    @POST
+    @Path("/lease/{lease}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            value = "Renews a lease",
+            notes = "Renews the lease of all jobs in progress held under it. Only the worker which claimed the jobs "
+                    + "may renew the lease. Returns the UUIDs of the jobs still held. Jobs which are no longer held "
+                    + "may have been claimed by another worker.",
+            response = String.class,
+            responseContainer = "List"
+    )
+    public Response renewLease(
+            @ApiParam(value = "The lease returned when the jobs were claimed", required = true)
+            @PathParam("lease") String leaseId) {
+
+        try (QueryManager qm = new QueryManager()) {
+            // Only the worker which claimed the jobs may renew the lease
+            final List<String> uuids = qm.renewJobLease(leaseId, getLeaseOwner(getPrincipal()), LEASE_DURATION);
+            if (uuids.size() > 0) {
+                JobArrivalMonitor.getInstance().leaseExpires(new Date(System.currentTimeMillis() + LEASE_DURATION));
+                return Response.ok(uuids).build();
+            } else {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+        }
+    }
+
+    /**
+     * Identifies the worker holding a lease by the principal which claimed the jobs.
+     */
+    private static String getLeaseOwner(Principal principal) {
+        if (principal instanceof ApiKey) {
+            return "apikey:" + ((ApiKey) principal).getId();
+        } else if (principal instanceof UserPrincipal) {
+            return principal.getClass().getSimpleName() + ":" + ((UserPrincipal) principal).getUsername();
+        }
+        return null;
+    }
+
+    /**
+     * A Claim attempts to claim jobs for a waiting worker each time jobs may have become
+     * available, until jobs were claimed or the worker no longer waits.
+     */
+    private static class Claim {
+
+        private final AsyncResponse response;
+        private final String classname;
+        private final int max;
+        private final String leaseId = UUID.randomUUID().toString();
+        private final String leaseOwner;
+        private final Principal principal;
+        private boolean resumed;
+
+        Claim(AsyncResponse response, String classname, int max, String leaseOwner, Principal principal) {
+            this.response = response;
+            this.classname = classname;
+            this.max = max;
+            this.leaseOwner = leaseOwner;
+            this.principal = principal;
+        }
+
+        /**
+         * Attempts to claim jobs, and resumes the response if jobs were claimed.
+         * @param last true if the worker no longer waits, in which case the response is resumed with no content
+         */
+        synchronized void attempt(boolean last) {
+            if (resumed) {
+                return;
+            }
+            final List<Job> jobs;
+            try (QueryManager qm = new QueryManager()) {
+                jobs = qm.claimJobs(classname, max, leaseId, leaseOwner, LEASE_DURATION, principal);
+            }
+            if (jobs.size() > 0) {
+                resumed = true;
+                JobArrivalMonitor.getInstance().leaseExpires(jobs.get(0).getLeaseExpires());
+                response.resume(Response.ok(jobs).header(LEASE_HEADER, leaseId).build());
+            } else if (last) {
+                resumed = true;
+                response.resume(Response.noContent().build());
+            }
+        }
+    }
+
 }
@@ -162,8 +162,7 @@ public class TeamResource extends BaseResource {
         try (QueryManager qm = new QueryManager()) {
             final Team team = qm.getObjectByUuid(Team.class, jsonTeam.getUuid(), Team.FetchGroup.ALL.getName());
             if (team != null) {
-                qm.delete(team.getApiKeys());
-                qm.delete(team);
+                qm.deleteTeam(team);
                 return Response.status(Response.Status.NO_CONTENT).build();
             } else {
                 return Response.status(Response.Status.NOT_FOUND).entity("The UUID of the team could not be found.").build();
@@ -251,7 +250,7 @@ public class TeamResource extends BaseResource {
         try (QueryManager qm = new QueryManager()) {
             final ApiKey apiKey = qm.getApiKey(apikey);
             if (apiKey != null) {
-                qm.delete(apiKey);
+                qm.deleteApiKey(apiKey);
                 return Response.status(Response.Status.NO_CONTENT).build();
             } else {
                 return Response.status(Response.Status.NOT_FOUND).entity("The API key could not be found.").build();
@@ -0,0 +1,341 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.logging.Logger;
+import io.hakbot.controller.model.Job;
+import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.persistence.QueryManager;
+import io.hakbot.controller.plugin.RemoteInstance;
+import org.apache.commons.lang3.SerializationUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The AdmissionController limits the number of jobs which are processed by a
+ * remote instance at the same time. Each remote instance (identified by the
+ * provider and the instance alias, or URL if the instance has no alias) has a
+ * number of slots defined by {@link RemoteInstance#getMaxConcurrent()}. A job
+ * takes a slot before the provider is asked to process it, and releases the
+ * slot when the job reaches a final state. Jobs which are refused a slot are
+ * remembered so that they can be retried as soon as a slot is freed.
+ *
+ * Slots are counted in memory. Jobs which were in progress when the system was
+ * stopped have their slots restored by the JobManager when it reconciles the
+ * job queues with the database.
+ */
+public class AdmissionController {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(AdmissionController.class);
+
+    // Holds an instance of AdmissionController
+    private static final AdmissionController INSTANCE = new AdmissionController();
+
+    // Holds the UUIDs of the jobs occupying a slot, for each instance
+    private final Map<String, Set<String>> slots = new HashMap<>();
+
+    // Holds the instance each job occupies a slot of
+    private final Map<String, String> holders = new HashMap<>();
+
+    // Holds the UUIDs of the jobs which were refused a slot, for each instance
+    private final Map<String, Set<String>> waiters = new HashMap<>();
+
+    // Holds the number of slots of each instance which has a limit
+    private final Map<String, Integer> limits = new HashMap<>();
+
+    // Holds the instance each job was initialized with, so that it is only read once per job
+    private final Map<String, Admission> admissions = new ConcurrentHashMap<>();
+
+    AdmissionController() { }
+
+    /**
+     * Return an instance of the AdmissionController instance
+     * @return an AdmissionController instance
+     */
+    public static AdmissionController getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Attempts to take a slot of the remote instance the job was initialized with.
+     * Jobs without a remote instance, and jobs which already hold a slot, are
+     * always admitted. This method does not contact the remote instance.
+     * @param job the job to admit
+     * @return true if the job may be processed, false if all slots are in use
+     */
+    public boolean acquire(Job job) {
+        return acquire(job.getUuid(), job.getProvider(), () -> getRemoteInstance(job));
+    }
+
+    /**
+     * Attempts to take a slot of the remote instance the job was initialized with.
+     * @param uuid the UUID of the job
+     * @param provider the class name of the provider of the job
+     * @param instance reads the remote instance the job was initialized with, if it is not known yet
+     * @return true if the job may be processed, false if all slots are in use
+     */
+    boolean acquire(String uuid, String provider, Supplier<RemoteInstance> instance) {
+        final Admission admission = getAdmission(uuid, provider, instance);
+        if (admission == Admission.NONE) {
+            return true;
+        }
+        return acquire(uuid, admission.key, admission.maxConcurrent);
+    }
+
+    /**
+     * Attempts to take a slot of the specified instance for the job.
+     * @param uuid the UUID of the job
+     * @param key the key identifying the instance
+     * @param maxConcurrent the number of slots of the instance, or zero if the instance has no limit
+     * @return true if the job may be processed, false if all slots are in use
+     */
+    synchronized boolean acquire(String uuid, String key, int maxConcurrent) {
+        if (holders.containsKey(uuid)) {
+            return true;
+        }
+        final Set<String> used = getOrCreate(slots, key);
+        if (maxConcurrent > 0) {
+            limits.put(key, maxConcurrent);
+        } else {
+            limits.remove(key);
+        }
+        if (maxConcurrent > 0 && used.size() >= maxConcurrent) {
+            // A job waits for one instance at a time, which may change when the job is initialized again
+            stopWaiting(uuid);
+            getOrCreate(waiters, key).add(uuid);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("All " + maxConcurrent + " slots of " + key + " are in use. Job " + uuid + " will wait.");
+            }
+            return false;
+        }
+        stopWaiting(uuid);
+        used.add(uuid);
+        holders.put(uuid, key);
+        return true;
+    }
+
+    /**
+     * Takes a slot for a job which is already being processed by its remote instance,
+     * even if this exceeds the number of slots available. Used to restore slots after
+     * the system was restarted.
+     * @param job the job in progress
+     */
+    public void restore(Job job) {
+        if (isHolding(job.getUuid())) {
+            return;
+        }
+        final Admission admission = getAdmission(job.getUuid(), job.getProvider(), () -> getRemoteInstance(job));
+        if (admission == Admission.NONE) {
+            return;
+        }
+        final String key = admission.key;
+        synchronized (this) {
+            if (!holders.containsKey(job.getUuid())) {
+                stopWaiting(job.getUuid());
+                getOrCreate(slots, key).add(job.getUuid());
+                holders.put(job.getUuid(), key);
+            }
+        }
+    }
+
+    /**
+     * Releases the slot held by the specified job, if any. As providers may choose
+     * between several instances, all jobs waiting for a slot of any instance of the
+     * same provider are returned so that they can be retried.
+     * @param uuid the UUID of the job
+     * @return the UUIDs of the jobs which are waiting for a slot of the same provider
+     */
+    public synchronized List<String> release(String uuid) {
+        final String key = holders.remove(uuid);
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        final Set<String> used = slots.get(key);
+        if (used != null) {
+            used.remove(uuid);
+            if (used.isEmpty()) {
+                slots.remove(key);
+            }
+        }
+        final String provider = key.substring(0, key.indexOf('#') + 1);
+        final List<String> waiting = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry: waiters.entrySet()) {
+            if (entry.getKey().startsWith(provider)) {
+                waiting.addAll(entry.getValue());
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Forgets the remote instance of the specified job. Used when a job reaches a final
+     * state, and when a job becomes unavailable, after its slot was released. Unavailable
+     * jobs are initialized again when they are retried, and may be given another instance.
+     * @param uuid the UUID of the job
+     */
+    public void forget(String uuid) {
+        admissions.remove(uuid);
+    }
+
+    /**
+     * Stops the specified job from waiting for a slot. Used when a job reaches
+     * a final state before it was able to take a slot.
+     * @param uuid the UUID of the job
+     */
+    public synchronized void stopWaiting(String uuid) {
+        for (String key: new ArrayList<>(waiters.keySet())) {
+            removeWaiter(key, uuid);
+        }
+    }
+
+    /**
+     * Determines if the specified job is waiting for a slot of an instance which
+     * currently has a slot available.
+     * @param uuid the UUID of the job
+     * @return true if the job was refused a slot and may now be admitted
+     */
+    public synchronized boolean isSlotAvailable(String uuid) {
+        for (Map.Entry<String, Set<String>> entry: waiters.entrySet()) {
+            if (entry.getValue().contains(uuid)) {
+                final Integer limit = limits.get(entry.getKey());
+                return limit == null || getActiveCount(entry.getKey()) < limit;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases the slots held by, and stops waiting for, all jobs which are not
+     * contained in the specified set.
+     * @param uuids the UUIDs of the jobs which may continue to hold a slot
+     */
+    public synchronized void retainAll(Set<String> uuids) {
+        admissions.keySet().retainAll(uuids);
+        for (String uuid: new ArrayList<>(holders.keySet())) {
+            if (!uuids.contains(uuid)) {
+                LOGGER.warn("Releasing slot held by job " + uuid + " which is no longer being processed");
+                release(uuid);
+            }
+        }
+        for (String key: new ArrayList<>(waiters.keySet())) {
+            for (String uuid: new ArrayList<>(waiters.get(key))) {
+                if (!uuids.contains(uuid)) {
+                    removeWaiter(key, uuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of slots in use for the specified instance.
+     */
+    public synchronized int getActiveCount(String key) {
+        final Set<String> used = slots.get(key);
+        return (used == null) ? 0 : used.size();
+    }
+
+    /**
+     * Determines if the specified job currently holds a slot.
+     */
+    public synchronized boolean isHolding(String uuid) {
+        return holders.containsKey(uuid);
+    }
+
+    /**
+     * Returns the key identifying a remote instance of the provider of the specified job.
+     */
+    public static String getKey(Job job, RemoteInstance instance) {
+        return getKey(job.getProvider(), instance);
+    }
+
+    /**
+     * Returns the key identifying a remote instance of the specified provider.
+     */
+    public static String getKey(String provider, RemoteInstance instance) {
+        final String identifier = (instance.getAlias() != null) ? instance.getAlias() : instance.getUrl();
+        return provider + "#" + identifier;
+    }
+
+    /**
+     * Returns the instance the job was initialized with, reading it on first use.
+     */
+    private Admission getAdmission(String uuid, String provider, Supplier<RemoteInstance> loader) {
+        Admission admission = admissions.get(uuid);
+        if (admission == null) {
+            final RemoteInstance instance = loader.get();
+            admission = (instance == null) ? Admission.NONE : new Admission(getKey(provider, instance), instance.getMaxConcurrent());
+            admissions.put(uuid, admission);
+        }
+        return admission;
+    }
+
+    /**
+     * Retrieves the remote instance the job was initialized with, if any.
+     */
+    private RemoteInstance getRemoteInstance(Job job) {
+        try (QueryManager qm = new QueryManager()) {
+            final JobArtifact artifact = qm.getJobArtifactWithContents(job, JobArtifact.Type.REMOTE_INSTANCE);
+            if (artifact == null || artifact.getContents() == null) {
+                return null;
+            }
+            return (RemoteInstance) SerializationUtils.deserialize(artifact.getContents());
+        }
+    }
+
+    private void removeWaiter(String key, String uuid) {
+        final Set<String> waiting = waiters.get(key);
+        if (waiting != null) {
+            waiting.remove(uuid);
+            if (waiting.isEmpty()) {
+                waiters.remove(key);
+            }
+        }
+    }
+
+    private static Set<String> getOrCreate(Map<String, Set<String>> map, String key) {
+        Set<String> set = map.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<>();
+            map.put(key, set);
+        }
+        return set;
+    }
+
+    /**
+     * Identifies the instance a job is processed by and the number of slots of the instance.
+     */
+    private static final class Admission {
+
+        private static final Admission NONE = new Admission(null, 0);
+
+        private final String key;
+        private final int maxConcurrent;
+
+        private Admission(String key, int maxConcurrent) {
+            this.key = key;
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+}
@@ -16,49 +16,34 @@
  */
 package io.hakbot.controller.workers;
 
-import alpine.Config;
-import alpine.logging.Logger;
-import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.plugin.Plugin;
+import io.hakbot.controller.plugin.PluginRegistry;
+import io.hakbot.controller.plugin.PluginRegistry.RegisteredPlugin;
 import org.apache.commons.lang3.StringUtils;
-import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Resolves the providers and publishers of jobs. Only plugins which are
+ * whitelisted may be resolved. Resolution is performed against the
+ * {@link PluginRegistry} and does not require any reflection.
+ */
 public class ExpectedClassResolver {
 
-    // Setup logging
-    private static final Logger LOGGER = Logger.getLogger(ExpectedClassResolver.class);
-
-    private static final List<String> PROVIDERS_CONFIGURED = new ArrayList<>();
-    private static final List<String> PUBLISHERS_CONFIGURED = new ArrayList<>();
-    private static final List<Class> RESOLVED_PROVIDERS = new ArrayList<>();
-    private static final List<Class> RESOLVED_PUBLISHERS = new ArrayList<>();
-    static {
-        String[] classes = Config.getInstance().getProperty(HakbotConfigKey.PROVIDERS_ENABLED).split(",");
-        for (String clazz : classes) {
-            PROVIDERS_CONFIGURED.add(clazz.trim());
-        }
-        classes = Config.getInstance().getProperty(HakbotConfigKey.PUBLISHERS_ENABLED).split(",");
-        for (String clazz : classes) {
-            PUBLISHERS_CONFIGURED.add(clazz.trim());
-        }
-    }
+    private final PluginRegistry registry = PluginRegistry.getInstance();
 
     /**
-     * Resolves the Class for the specified Job and plugin type. The plugin needs to be whitelisted
-     * in order to be resolved. If plugin is not whitelisted, an ExpectedClassResolverException
+     * Resolves the registered plugin for the specified plugin type and class. The plugin needs to be
+     * whitelisted in order to be resolved. If plugin is not whitelisted, an ExpectedClassResolverException
      * is thrown.
      */
-    private Class resolveClass(Plugin.Type type, String pluginClass) throws ClassNotFoundException, ExpectedClassResolverException {
-        if (type.equals(Plugin.Type.PROVIDER)) {
-            if (PROVIDERS_CONFIGURED.contains(pluginClass)) {
-                return Class.forName(pluginClass, false, this.getClass().getClassLoader());
-            }
-        } else {
-            if (PUBLISHERS_CONFIGURED.contains(pluginClass)) {
-                return Class.forName(pluginClass, false, this.getClass().getClassLoader());
-            }
+    private RegisteredPlugin resolvePlugin(Plugin.Type type, String pluginClass) throws ClassNotFoundException, ExpectedClassResolverException {
+        final RegisteredPlugin plugin = registry.get(type, pluginClass);
+        if (plugin != null) {
+            return plugin;
+        }
+        if (registry.isEnabled(type, pluginClass)) {
+            throw new ClassNotFoundException(pluginClass);
         }
         throw new ExpectedClassResolverException();
     }
@@ -69,7 +54,7 @@ public class ExpectedClassResolver {
      * is thrown.
      */
     public Class resolveProvider(Job job) throws ClassNotFoundException, ExpectedClassResolverException {
-        return resolveClass(Plugin.Type.PROVIDER, job.getProvider());
+        return resolvePlugin(Plugin.Type.PROVIDER, job.getProvider()).getPluginClass();
     }
 
     /**
@@ -78,35 +63,35 @@ public class ExpectedClassResolver {
      * is thrown.
      */
     public Class resolvePublisher(Job job) throws ClassNotFoundException, ExpectedClassResolverException {
-        return resolveClass(Plugin.Type.PUBLISHER, job.getPublisher());
+        return resolvePlugin(Plugin.Type.PUBLISHER, job.getPublisher()).getPluginClass();
     }
 
-    private List<Class> autoResolve(List<Class> resolveList, List<String> classNames) {
-        if (resolveList.size() == 0) {
-            for (String className: classNames) {
-                try {
-                    final Class clazz = Class.forName(className, false, this.getClass().getClassLoader());
-                    resolveList.add(clazz);
-                } catch (ClassNotFoundException e) {
-                    LOGGER.error("Cannot resolve " + className);
-                }
-            }
-        }
-        return resolveList;
+    /**
+     * Resolves the registered plugin for the specified Job's provider.
+     */
+    public RegisteredPlugin resolveRegisteredProvider(Job job) throws ClassNotFoundException, ExpectedClassResolverException {
+        return resolvePlugin(Plugin.Type.PROVIDER, job.getProvider());
+    }
+
+    /**
+     * Resolves the registered plugin for the specified Job's publisher.
+     */
+    public RegisteredPlugin resolveRegisteredPublisher(Job job) throws ClassNotFoundException, ExpectedClassResolverException {
+        return resolvePlugin(Plugin.Type.PUBLISHER, job.getPublisher());
     }
 
     public List<Class> getResolvedProviders() {
-        return autoResolve(RESOLVED_PROVIDERS, PROVIDERS_CONFIGURED);
+        return registry.getProviderClasses();
     }
 
     public List<Class> getResolvedPubishers() {
-        return autoResolve(RESOLVED_PUBLISHERS, PUBLISHERS_CONFIGURED);
+        return registry.getPublisherClasses();
     }
 
     public boolean isClassAllowed(String pluginClass) {
         if (StringUtils.isEmpty(pluginClass)) {
             return true;
         }
-        return (PROVIDERS_CONFIGURED.contains(pluginClass) || PUBLISHERS_CONFIGURED.contains(pluginClass));
+        return (registry.isEnabled(Plugin.Type.PROVIDER, pluginClass) || registry.isEnabled(Plugin.Type.PUBLISHER, pluginClass));
     }
 }
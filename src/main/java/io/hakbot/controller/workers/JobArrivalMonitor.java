@@ -0,0 +1,140 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.logging.Logger;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JobArrivalMonitor informs remote workers which are waiting for jobs to be claimed
+ * as soon as jobs may have become available, rather than having them poll for jobs.
+ * Jobs become available when they are created, and when the lease of a claimed job
+ * expires without having been renewed.
+ *
+ * Waiting workers are held in memory and do not hold a request thread while they wait.
+ * Listeners should subscribe before looking for jobs, so that a job which becomes
+ * available in between is never missed.
+ */
+public final class JobArrivalMonitor {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(JobArrivalMonitor.class);
+
+    private static final JobArrivalMonitor INSTANCE = new JobArrivalMonitor();
+
+    private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+    private final Set<Long> scheduledExpiries = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1, runnable -> {
+        final Thread thread = new Thread(runnable, "Hakbot-JobArrivalMonitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A Listener is called on a thread of the monitor, which is shared by all listeners, and must not block.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void jobsAvailable();
+    }
+
+    /**
+     * A Subscription is closed once the worker no longer waits for jobs.
+     */
+    public interface Subscription extends AutoCloseable {
+        void close();
+    }
+
+    private JobArrivalMonitor() { }
+
+    public static JobArrivalMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Subscribes the listener to the arrival of jobs.
+     * @param listener the listener to inform when jobs may be available
+     * @return the subscription, which must be closed to unsubscribe
+     */
+    public Subscription subscribe(Listener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    /**
+     * Informs the monitor that a job has been created, waking up all waiters.
+     */
+    public void jobCreated() {
+        execute(this::inform);
+    }
+
+    /**
+     * Informs the monitor that the lease of a claimed job expires at the specified time,
+     * unless it is renewed. Waiters are woken up once the lease has expired, so that they
+     * may claim the job again. Leases expiring within the same second share one wake-up.
+     * @param expires the time the lease expires
+     */
+    public void leaseExpires(Date expires) {
+        final long second = TimeUnit.MILLISECONDS.toSeconds(expires.getTime()) + 1;
+        if (!scheduledExpiries.add(second)) {
+            return;
+        }
+        final long delay = TimeUnit.SECONDS.toMillis(second) - System.currentTimeMillis();
+        try {
+            executor.schedule(() -> {
+                scheduledExpiries.remove(second);
+                inform();
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            scheduledExpiries.remove(second);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        listeners.clear();
+    }
+
+    private void execute(Runnable task) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("The JobArrivalMonitor has been shut down");
+        }
+    }
+
+    private void inform() {
+        for (Listener listener: listeners) {
+            try {
+                listener.jobsAvailable();
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to inform waiting worker of available jobs: " + e.getMessage());
+            }
+        }
+    }
+
+}
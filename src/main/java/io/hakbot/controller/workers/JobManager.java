@@ -25,23 +25,37 @@ import io.hakbot.controller.event.JobProgressCheckEvent;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.SystemAccount;
 import io.hakbot.controller.persistence.QueryManager;
+import io.hakbot.controller.plugin.PluginRegistry;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The JobManager is used to store the current queued jobs waiting
  * to be executed and the jobs which are currently being executed.
- * It also implements a TimerTask which will check for new work to
- * do and another TimerTask which will cleanup references to
- * completed jobs. Both tasks intervals are configurable in
- * application.properties. If new work is found, the scheduler will
- * take one job off the queue every time the scheduled task runs.
+ * Jobs are dispatched as soon as they enter the In Queue state, as
+ * reported by {@link JobUpdateLogger}. A TimerTask retries jobs that
+ * were unavailable, while a slower TimerTask reconciles the in-memory
+ * queues against the database (rebuilding them on startup) and another
+ * TimerTask cleans up completed jobs.
+ *
+ * The progress of asynchronous jobs is checked on a per-job schedule.
+ * Each job holds its own next-check time in a delay queue. The interval
+ * between checks starts small and doubles after every check, up to a
+ * maximum which may be lowered by the provider. Providers which are
+ * able to estimate the time remaining defer the next check until then.
+ * All intervals are configurable in application.properties.
  */
 public class JobManager {
 
@@ -51,8 +65,26 @@ public class JobManager {
     // Holds an instance of JobManager
     private static final JobManager INSTANCE = new JobManager();
 
-    // Holds an in-memory queue of all UUIDs for jobs that need to be processed
-    private Set<String> workQueue = Collections.synchronizedSet(new LinkedHashSet<String>());
+    // Holds the UUIDs of all jobs that have been dispatched for processing, along with the time they were dispatched
+    private final Map<String, Long> workQueue = new ConcurrentHashMap<>();
+
+    // Holds an in-memory queue of all UUIDs for jobs the provider was unavailable to process
+    private final Set<String> unavailableQueue = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    // Holds the scheduled progress check for every asynchronous job that is currently in progress
+    private final Map<String, ProgressCheck> progressChecks = new ConcurrentHashMap<>();
+
+    // Holds the progress checks ordered by the time they are due
+    private final DelayQueue<ProgressCheck> progressCheckQueue = new DelayQueue<>();
+
+    // Defines the interval (in milliseconds) of the first progress check of a job
+    private long progressCheckInitialInterval;
+
+    // Defines the maximum interval (in milliseconds) between progress checks of a job
+    private long progressCheckMaxInterval;
+
+    // Defines the interval (in milliseconds) between reconciliations, after which a dispatched job is considered lost
+    private long queueReconcileInterval;
 
     // Defines the interval that jobs will be permanently removed from the system
     private long jobPruneInterval;
@@ -60,9 +92,15 @@ public class JobManager {
     // A Principal implementation for system-wide object-level access control
     private SystemAccount systemAccount = new SystemAccount();
 
-    // Defines a scheduled task that checks for new jobs and in-progress jobs
+    // Defines a scheduled task that retries unavailable jobs
     private Timer jobSchedulerTimer = new Timer();
 
+    // Defines a thread that sends progress checks as they become due
+    private Thread progressCheckThread = new Thread(new ProgressCheckDispatcher(), "Hakbot-ProgressCheckDispatcher");
+
+    // Defines a scheduled task that reconciles the in-memory queues with the database
+    private Timer jobReconcileTimer = new Timer();
+
     // Defines a scheduled task that prunes the database of old jobs
     private Timer jobPruneTimer = new Timer();
 
@@ -73,11 +111,22 @@ public class JobManager {
         LOGGER.info("Initializing JobManager");
 
         final int queueCheckInterval = Config.getInstance().getPropertyAsInt(HakbotConfigKey.QUEUE_CHECK_INTERVAL) * 1000; // in Seconds
+        this.queueReconcileInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.QUEUE_RECONCILE_INTERVAL) * 1000; // in Seconds
         final long jobPruneCheckInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.JOB_PRUNE_CHECK_INTERVAL) * 3600000; // in Hours
         this.jobPruneInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.JOB_PRUNE_INTERVAL) * 86400000; // in Days
+        this.progressCheckInitialInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.PROGRESS_CHECK_INITIAL_INTERVAL) * 1000; // in Seconds
+        this.progressCheckMaxInterval = Math.max(progressCheckInitialInterval,
+                Config.getInstance().getPropertyAsLong(HakbotConfigKey.PROGRESS_CHECK_MAX_INTERVAL) * 1000); // in Seconds
+
+        // Starts dispatching progress checks as they become due
+        progressCheckThread.setDaemon(true);
+        progressCheckThread.start();
+
+        // Creates a new JobReconcileTask immediately (rebuilding the queues) and then every x seconds (defined by queueReconcileInterval)
+        jobReconcileTimer.schedule(new JobReconcileTask(), 0, queueReconcileInterval);
 
         // Creates a new JobSchedulerTask every x seconds (defined by queueCheckInterval)
-        jobSchedulerTimer.schedule(new JobSchedulerTask(), 0, queueCheckInterval);
+        jobSchedulerTimer.schedule(new JobSchedulerTask(), queueCheckInterval, queueCheckInterval);
 
         // Creates a new JobPruneTask every x seconds (defined by jobPruneInterval)
         jobPruneTimer.schedule(new JobPruneTask(), 0, jobPruneCheckInterval);
@@ -92,49 +141,361 @@ public class JobManager {
     }
 
     /**
-     * Polls for all unavailable jobs and those that are in queue and
-     * sends events to start the jobs. This class also sends events to
-     * update the status of all jobs marked in progress.
+     * Informs the JobManager that the state of a job has been committed. Jobs
+     * entering the In Queue state are dispatched immediately. Jobs which are
+     * unavailable are retried by the JobSchedulerTask, or as soon as a job
+     * holding a slot of the same remote instance reaches a final state.
+     * Asynchronous jobs in progress are checked on their own schedule until
+     * they reach a final state.
+     * @param job the job whose state changed
      */
-    private class JobSchedulerTask extends TimerTask {
-        public synchronized void run() {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Polling for in-progress jobs");
+    public void jobStateChanged(Job job) {
+        final String uuid = job.getUuid();
+        final State state = job.getState();
+        if (state == State.IN_QUEUE) {
+            unavailableQueue.remove(uuid);
+            dispatch(uuid);
+        } else if (state == State.UNAVAILABLE) {
+            workQueue.remove(uuid);
+            untrackProgress(uuid);
+            // The job no longer holds its slot. Other jobs waiting for a slot of the same instance are retried immediately.
+            for (String waiting: AdmissionController.getInstance().release(uuid)) {
+                if (!waiting.equals(uuid) && unavailableQueue.remove(waiting)) {
+                    dispatch(waiting);
+                }
             }
-            for (Job job: getInProcessJobs()) {
-                if (workQueue.contains(job.getUuid())) {
-                    workQueue.remove(job.getUuid());
+            // The job is initialized again when it is retried, and may be given another instance
+            AdmissionController.getInstance().forget(uuid);
+            if (AdmissionController.getInstance().isSlotAvailable(uuid)) {
+                // The job was waiting for a slot which was freed before its state was committed
+                dispatch(uuid);
+            } else {
+                unavailableQueue.add(uuid);
+            }
+        } else if (state == State.IN_PROGRESS) {
+            workQueue.remove(uuid);
+            unavailableQueue.remove(uuid);
+            if (isAsynchronous(job) && !PluginRegistry.getInstance().isRemotelyProcessed(job.getProvider())) {
+                trackProgress(uuid);
+            }
+        } else if (state != State.CREATED) {
+            workQueue.remove(uuid);
+            unavailableQueue.remove(uuid);
+            untrackProgress(uuid);
+            AdmissionController.getInstance().stopWaiting(uuid);
+            // The job no longer needs its slot. Jobs waiting for a slot of the same instance are retried immediately.
+            for (String waiting: AdmissionController.getInstance().release(uuid)) {
+                if (unavailableQueue.remove(waiting)) {
+                    dispatch(waiting);
                 }
-                EventService.getInstance().publish(new JobProgressCheckEvent(job.getUuid()));
             }
+            AdmissionController.getInstance().forget(uuid);
+        }
+    }
+
+    /**
+     * Informs the JobManager that a JobProcessEvent has been handled, regardless of its
+     * outcome. The job is no longer in flight and may be dispatched again.
+     * @param uuid the UUID of the job which was processed
+     */
+    public void processed(String uuid) {
+        workQueue.remove(uuid);
+    }
+
+    /**
+     * Informs the JobManager that a progress check found the job still running.
+     * If the provider estimated the time remaining, the next check is deferred
+     * until then. Otherwise, the current backoff schedule is kept. In both cases
+     * the interval between checks will not exceed the maximum of the provider.
+     * @param uuid the UUID of the job which was checked
+     * @param estimatedTimeRemaining the estimated number of seconds until the job completes, or -1 if unknown
+     * @param maxInterval the maximum number of seconds between checks allowed by the provider, or -1 to use the system maximum
+     */
+    public void progressChecked(String uuid, long estimatedTimeRemaining, long maxInterval) {
+        synchronized (progressChecks) {
+            final ProgressCheck current = progressChecks.get(uuid);
+            if (current == null) {
+                return; // The job is no longer in progress
+            }
+            final long cap = ProgressCheck.getMaxInterval(progressCheckMaxInterval, maxInterval);
+            final long delay = ProgressCheck.getNextDelay(current.getRemainingMillis(), estimatedTimeRemaining, cap);
+            replaceProgressCheck(current, new ProgressCheck(uuid, delay, Math.min(current.interval, cap), cap));
+        }
+    }
+
+    /**
+     * Informs the JobManager that an asynchronous job is known to have finished running,
+     * so that its progress is checked immediately rather than on its backoff schedule.
+     * Has no effect if the progress of the job is not tracked.
+     * @param uuid the UUID of the job
+     */
+    public void checkProgressNow(String uuid) {
+        synchronized (progressChecks) {
+            final ProgressCheck current = progressChecks.get(uuid);
+            if (current != null) {
+                replaceProgressCheck(current, new ProgressCheck(uuid, 0, current.interval, current.maxInterval));
+            }
+        }
+    }
+
+    /**
+     * Schedules the first progress check of an asynchronous job, unless the job is already tracked.
+     */
+    private void trackProgress(String uuid) {
+        synchronized (progressChecks) {
+            if (!progressChecks.containsKey(uuid)) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Scheduling progress checks for job " + uuid);
+                }
+                replaceProgressCheck(null, new ProgressCheck(uuid, progressCheckInitialInterval,
+                        progressCheckInitialInterval, progressCheckMaxInterval));
+            }
+        }
+    }
+
+    /**
+     * Cancels all future progress checks for the specified job.
+     */
+    private void untrackProgress(String uuid) {
+        synchronized (progressChecks) {
+            final ProgressCheck current = progressChecks.remove(uuid);
+            if (current != null) {
+                progressCheckQueue.remove(current);
+            }
+        }
+    }
+
+    /**
+     * Replaces a scheduled progress check with another. Must be called while holding the progressChecks lock.
+     */
+    private void replaceProgressCheck(ProgressCheck current, ProgressCheck next) {
+        if (current != null) {
+            progressCheckQueue.remove(current);
+        }
+        progressChecks.put(next.uuid, next);
+        progressCheckQueue.offer(next);
+    }
+
+    /**
+     * Sends an event to process the specified job, unless the job has already been dispatched.
+     */
+    private void dispatch(String uuid) {
+        if (workQueue.putIfAbsent(uuid, System.currentTimeMillis()) == null) {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Polling for new jobs");
+                LOGGER.debug("Adding job " + uuid + " to work queue");
+            }
+            EventService.getInstance().publish(new JobProcessEvent(uuid));
+        }
+    }
+
+    /**
+     * Determines if the provider of the specified job is an AsynchronousProvider.
+     * Only asynchronous jobs need to have their progress checked.
+     */
+    private boolean isAsynchronous(Job job) {
+        try {
+            return new ExpectedClassResolver().resolveRegisteredProvider(job).isAsynchronous();
+        } catch (ClassNotFoundException | ExpectedClassResolverException e) {
+            LOGGER.error(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Copies the contents of a synchronized set so that it can be iterated upon safely.
+     */
+    private static List<String> snapshot(Set<String> set) {
+        synchronized (set) {
+            return new ArrayList<>(set);
+        }
+    }
+
+    /**
+     * Holds the time the next progress check of a job is due, along with the
+     * backoff interval and the maximum interval used to schedule the one after it.
+     */
+    static class ProgressCheck implements Delayed {
+        final String uuid;
+        final long due;
+        final long interval;
+        final long maxInterval;
+
+        ProgressCheck(String uuid, long delay, long interval, long maxInterval) {
+            this.uuid = uuid;
+            this.due = System.currentTimeMillis() + delay;
+            this.interval = interval;
+            this.maxInterval = maxInterval;
+        }
+
+        /**
+         * Returns the progress check that follows this one, doubling the interval up to the maximum.
+         */
+        ProgressCheck next() {
+            final long nextInterval = Math.min(interval * 2, maxInterval);
+            return new ProgressCheck(uuid, nextInterval, nextInterval, maxInterval);
+        }
+
+        long getRemainingMillis() {
+            return Math.max(0, due - System.currentTimeMillis());
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+        }
+
+        /**
+         * Returns the maximum number of milliseconds between progress checks of a job.
+         * @param systemMaxInterval the maximum number of milliseconds configured for all jobs
+         * @param maxInterval the maximum number of seconds allowed by the provider, or -1 to use the system maximum
+         */
+        static long getMaxInterval(long systemMaxInterval, long maxInterval) {
+            if (maxInterval > 0) {
+                return Math.min(systemMaxInterval, TimeUnit.SECONDS.toMillis(maxInterval));
             }
-            for (Job job: getWaitingJobs()) {
-                if (workQueue.add(job.getUuid())) {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Adding job " + job.getUuid() + " to work queue");
+            return systemMaxInterval;
+        }
+
+        /**
+         * Returns the number of milliseconds until the next progress check of a job which is still running.
+         * @param remainingMillis the number of milliseconds until the check already scheduled is due
+         * @param estimatedTimeRemaining the estimated number of seconds until the job completes, or -1 if unknown
+         * @param maxInterval the maximum number of milliseconds between checks
+         */
+        static long getNextDelay(long remainingMillis, long estimatedTimeRemaining, long maxInterval) {
+            if (estimatedTimeRemaining > 0) {
+                return Math.min(TimeUnit.SECONDS.toMillis(estimatedTimeRemaining), maxInterval);
+            }
+            return Math.min(remainingMillis, maxInterval);
+        }
+    }
+
+    /**
+     * Waits for progress checks to become due and sends events to update the
+     * status of the job. The next check of the job is scheduled immediately,
+     * so that a job is never forgotten if a check fails or is lost. This task
+     * only operates on the in-memory queue and does not query the database.
+     */
+    private class ProgressCheckDispatcher implements Runnable {
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                final ProgressCheck check;
+                try {
+                    check = progressCheckQueue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                synchronized (progressChecks) {
+                    if (progressChecks.get(check.uuid) != check) {
+                        continue; // The check was replaced or the job is no longer in progress
                     }
-                    EventService.getInstance().publish(new JobProcessEvent(job.getUuid()));
+                    replaceProgressCheck(null, check.next());
+                }
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Checking progress of job " + check.uuid);
                 }
+                EventService.getInstance().publish(new JobProgressCheckEvent(check.uuid));
             }
         }
+    }
 
-        private List<Job> getInProcessJobs() {
-            final List<Job> jobs = new ArrayList<>();
-            try (QueryManager qm = new QueryManager()) {
-                jobs.addAll(qm.getJobs(State.IN_PROGRESS, QueryManager.OrderDirection.ASC, systemAccount));
+    /**
+     * Retries all jobs that were unavailable. This task only operates on the
+     * in-memory queues and does not query the database.
+     */
+    private class JobSchedulerTask extends TimerTask {
+        public synchronized void run() {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Retrying unavailable jobs");
+            }
+            for (String uuid: snapshot(unavailableQueue)) {
+                if (unavailableQueue.remove(uuid)) {
+                    dispatch(uuid);
+                }
             }
-            return jobs;
         }
+    }
 
-        private List<Job> getWaitingJobs() {
-            final List<Job> jobs = new ArrayList<>();
+    /**
+     * Polls the database for all unavailable, queued, and in-progress jobs and
+     * reconciles the in-memory queues with them. This recovers jobs that were
+     * in the queue when the system was stopped, as well as jobs whose updates
+     * may have been lost, and discards references to jobs that no longer exist.
+     * Dispatched jobs which are neither waiting nor in progress are forgotten,
+     * and waiting jobs which have been in flight for longer than a reconciliation
+     * interval are considered lost and are dispatched again. Jobs which have been
+     * claimed but not yet processed are left to the worker which claimed them.
+     */
+    private class JobReconcileTask extends TimerTask {
+        public synchronized void run() {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Reconciling job queues");
+            }
+            final List<Job> queued = new ArrayList<>();
+            final List<Job> unavailable = new ArrayList<>();
+            final List<Job> running = new ArrayList<>();
             try (QueryManager qm = new QueryManager()) {
-                jobs.addAll(qm.getJobs(State.UNAVAILABLE, QueryManager.OrderDirection.ASC, systemAccount));
-                jobs.addAll(qm.getJobs(State.IN_QUEUE, QueryManager.OrderDirection.ASC, systemAccount));
+                queued.addAll(qm.getJobs(State.IN_QUEUE, QueryManager.OrderDirection.ASC, systemAccount));
+                unavailable.addAll(qm.getJobs(State.UNAVAILABLE, QueryManager.OrderDirection.ASC, systemAccount));
+                running.addAll(qm.getJobs(State.IN_PROGRESS, QueryManager.OrderDirection.ASC, systemAccount));
+            }
+            // Jobs claimed by remote workers are neither admitted nor tracked here
+            running.removeIf(job -> PluginRegistry.getInstance().isRemotelyProcessed(job.getProvider()));
+            final Set<String> waiting = new HashSet<>();
+            for (Job job: queued) {
+                waiting.add(job.getUuid());
+            }
+            for (Job job: unavailable) {
+                waiting.add(job.getUuid());
+            }
+            final Set<String> processing = new HashSet<>();
+            for (Job job: running) {
+                processing.add(job.getUuid());
+            }
+            unavailableQueue.retainAll(waiting);
+            // Jobs are in progress while they are being initialized, and remain in flight until they are processed
+            final Set<String> dispatchable = new HashSet<>(waiting);
+            dispatchable.addAll(processing);
+            workQueue.keySet().retainAll(dispatchable);
+            final long stale = System.currentTimeMillis() - queueReconcileInterval;
+            workQueue.entrySet().removeIf(entry -> {
+                // Claimed jobs are never lost, as the worker which claimed them releases them once processed
+                if (entry.getValue() < stale && waiting.contains(entry.getKey())) {
+                    LOGGER.warn("Job " + entry.getKey() + " was dispatched but not processed. Dispatching again");
+                    return true;
+                }
+                return false;
+            });
+            final Set<String> admitted = new HashSet<>(waiting);
+            admitted.addAll(processing);
+            AdmissionController.getInstance().retainAll(admitted);
+            for (String uuid: new ArrayList<>(progressChecks.keySet())) {
+                if (!processing.contains(uuid)) {
+                    untrackProgress(uuid);
+                }
+            }
+
+            for (Job job: running) {
+                if (workQueue.containsKey(job.getUuid())) {
+                    continue; // Claimed, but not yet processed. The worker informs the JobManager once it is.
+                }
+                if (!progressChecks.containsKey(job.getUuid()) && isAsynchronous(job)) {
+                    trackProgress(job.getUuid());
+                }
+                AdmissionController.getInstance().restore(job);
+            }
+            for (Job job: unavailable) {
+                if (!workQueue.containsKey(job.getUuid())) {
+                    unavailableQueue.add(job.getUuid());
+                }
+            }
+            for (Job job: queued) {
+                dispatch(job.getUuid());
             }
-            return jobs;
         }
     }
 
@@ -172,6 +533,8 @@ public class JobManager {
 
     public void shutdown() {
         jobSchedulerTimer.cancel();
+        jobReconcileTimer.cancel();
         jobPruneTimer.cancel();
+        progressCheckThread.interrupt();
     }
 }
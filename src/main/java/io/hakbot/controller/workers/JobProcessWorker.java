@@ -28,14 +28,17 @@ import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.providers.AsynchronousProvider;
 import io.hakbot.providers.Provider;
 import io.hakbot.providers.SynchronousProvider;
-import java.lang.reflect.Constructor;
 
 /**
  * The JobProcessWorker is a Subscriber, that when a JobProcessEvent is fired,
- * will begin to process the specified job. This class begins by initializing
- * a provider, checking if the provider is available to process jobs, and
- * submits a request to the provider to begin processing. This class supports
- * the processing of both AsynchronousProvider and SynchronousProvider jobs.
+ * will begin to process the specified job. This class begins by claiming the
+ * job, so that a job dispatched more than once is only processed by one worker,
+ * then initializes a provider, takes a slot of the remote instance used by the
+ * job, checks if the provider is available to process jobs, and submits a
+ * request to the provider to begin processing. Jobs which cannot be admitted or
+ * whose provider is unavailable are returned to the Unavailable state. This
+ * class supports the processing of both AsynchronousProvider and
+ * SynchronousProvider jobs.
  *
  * @see JobProcessEvent
  */
@@ -46,52 +49,112 @@ public class JobProcessWorker implements Subscriber {
     public void inform(Event e) {
         if (e instanceof JobProcessEvent) {
             final JobProcessEvent event = (JobProcessEvent)e;
+            try {
+                process(event);
+            } finally {
+                // Whatever the outcome, the job is no longer in flight
+                JobManager.getInstance().processed(event.getJobUuid());
+            }
+        }
+    }
 
-            final QueryManager qm = new QueryManager();
-            final Job job = qm.getJob(event.getJobUuid(), new SystemAccount());
-            qm.close();
+    private void process(JobProcessEvent event) {
+        final QueryManager qm = new QueryManager();
+        final Job job = qm.getJob(event.getJobUuid(), new SystemAccount());
+        qm.close();
 
-            LOGGER.info("Job: " + event.getJobUuid() + " is being processed.");
+        // The job may have been dispatched more than once, or canceled since it was dispatched
+        if (job == null || (job.getState() != State.IN_QUEUE && job.getState() != State.UNAVAILABLE)) {
+            LOGGER.debug("Job: " + event.getJobUuid() + " is no longer waiting to be processed.");
+            return;
+        }
 
-            final boolean initialized, isAvailable;
-            try {
-                final ExpectedClassResolver resolver = new ExpectedClassResolver();
-                final Class clazz = resolver.resolveProvider(job);
-                @SuppressWarnings("unchecked")
-                final Constructor<?> con = clazz.getConstructor();
-                final Provider provider = (AsynchronousProvider.class.isAssignableFrom(clazz)) ?
-                        (AsynchronousProvider) con.newInstance() : (SynchronousProvider) con.newInstance();
+        // Claim the job before the provider is initialized, as initialization modifies the job (such as
+        // choosing its remote instance). Of all workers racing to process the job, only one succeeds.
+        if (!claim(job)) {
+            return;
+        }
 
-                initialized = provider.initialize(job);
-                if (initialized) {
-                    EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).message("Initialized " + provider.getName()));
-                    isAvailable = provider.isAvailable(job);
-                } else {
-                    EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED).message("Unable to initialize " + provider.getName()));
-                    return; // Cannot continue.
+        LOGGER.info("Job: " + event.getJobUuid() + " is being processed.");
+
+        final boolean initialized, isAvailable;
+        try {
+            final ExpectedClassResolver resolver = new ExpectedClassResolver();
+            final Provider provider = resolver.resolveRegisteredProvider(job).newInstance();
+
+            initialized = provider.initialize(job);
+            if (initialized) {
+                // Take a slot of the remote instance chosen during initialization. If the instance is
+                // saturated, the job waits without contacting the instance and is retried once a slot frees up.
+                if (!AdmissionController.getInstance().acquire(job)) {
+                    unavailable(job);
+                    return;
                 }
+                EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).message("Initialized " + provider.getName()));
+                isAvailable = provider.isAvailable(job);
+            } else {
+                EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED).message("Unable to initialize " + provider.getName()));
+                return; // Cannot continue.
+            }
 
-                if (isAvailable) {
-                    EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.IN_PROGRESS));
-                    if (provider instanceof AsynchronousProvider) {
-                        // Asynchronously process a job. Another task will periodically poll for updates and status.
-                        ((AsynchronousProvider) provider).process(job);
+            if (isAvailable) {
+                // The job is about to be processed. Let the JobManager track its progress.
+                JobManager.getInstance().jobStateChanged(job);
+                if (provider instanceof AsynchronousProvider) {
+                    // Asynchronously process a job. Another task will periodically poll for updates and status.
+                    ((AsynchronousProvider) provider).process(job);
+                } else {
+                    // Synchronous execution needs to wait for the process to complete, thus holding up a thread.
+                    // The boolean result from the execution determines if the execution was successful or not.
+                    final boolean success = ((SynchronousProvider) provider).process(job);
+                    if (success) {
+                        EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.COMPLETED));
                     } else {
-                        // Synchronous execution needs to wait for the process to complete, thus holding up a thread.
-                        // The boolean result from the execution determines if the execution was successful or not.
-                        final boolean success = ((SynchronousProvider) provider).process(job);
-                        if (success) {
-                            EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.COMPLETED));
-                        } else {
-                            EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED));
-                        }
+                        EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED));
                     }
-                } else {
-                    EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.UNAVAILABLE));
                 }
-            } catch (Throwable ex) {
-                LOGGER.error(ex.getMessage());
-                EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED).message(ex.getMessage()));
+            } else {
+                unavailable(job);
+            }
+        } catch (Throwable ex) {
+            LOGGER.error(ex.getMessage());
+            EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED).message(ex.getMessage()));
+        }
+    }
+
+    /**
+     * Transitions the job into progress. If the job was modified concurrently, the
+     * JobManager is informed of its current state instead. The JobManager is not
+     * informed of a successful claim until the job is about to be processed, so that
+     * its progress is not checked before the provider has begun processing it.
+     * @return true if the job was claimed
+     */
+    private boolean claim(Job job) {
+        try (QueryManager qm = new QueryManager()) {
+            if (qm.transitionJob(job.getUuid(), job.getState(), State.IN_PROGRESS)) {
+                job.setState(State.IN_PROGRESS);
+                return true;
+            }
+            LOGGER.info("Job: " + job.getUuid() + " was claimed or modified concurrently.");
+            final Job current = qm.getJob(job.getUuid(), new SystemAccount());
+            if (current != null) {
+                JobManager.getInstance().jobStateChanged(current);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns a claimed job to the Unavailable state, so that it is retried later.
+     */
+    private void unavailable(Job job) {
+        try (QueryManager qm = new QueryManager()) {
+            if (!qm.transitionJob(job.getUuid(), State.IN_PROGRESS, State.UNAVAILABLE)) {
+                LOGGER.info("Job: " + job.getUuid() + " was modified concurrently.");
+            }
+            final Job current = qm.getJob(job.getUuid(), new SystemAccount());
+            if (current != null) {
+                JobManager.getInstance().jobStateChanged(current);
             }
         }
     }
@@ -26,9 +26,9 @@ import io.hakbot.controller.event.JobUpdateEvent;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.SystemAccount;
 import io.hakbot.controller.persistence.QueryManager;
+import io.hakbot.controller.plugin.PluginRegistry.RegisteredPlugin;
 import io.hakbot.providers.AsynchronousProvider;
 import org.apache.commons.lang3.StringUtils;
-import java.lang.reflect.Constructor;
 
 /**
  * The JobProgressCheckWorker is a Subscriber, that when a JobProgressCheckWorker
@@ -50,30 +50,42 @@ public class JobProgressCheckWorker implements Subscriber {
             final Job job = qm.getJob(event.getJobUuid(), new SystemAccount());
             qm.close();
 
+            if (job == null || job.getState() != State.IN_PROGRESS) {
+                return; // The job completed, failed or was canceled since the check was scheduled
+            }
+
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Progress update for job: " + event.getJobUuid());
             }
 
             try {
                 final ExpectedClassResolver resolver = new ExpectedClassResolver();
-                final Class clazz = resolver.resolveProvider(job);
-                LOGGER.debug("Job: " + job.getUuid() + " / Class: " + clazz);
-                @SuppressWarnings("unchecked")
-                final Constructor<?> constructor = clazz.getConstructor();
+                final RegisteredPlugin plugin = resolver.resolveRegisteredProvider(job);
+                LOGGER.debug("Job: " + job.getUuid() + " / Class: " + plugin.getPluginClass());
                 // We only need to check status of asynchronous jobs
-                final AsynchronousProvider provider = (AsynchronousProvider) constructor.newInstance();
+                if (!plugin.isAsynchronous()) {
+                    return;
+                }
+                final AsynchronousProvider provider = plugin.newInstance();
                 LOGGER.debug("Job: " + job.getUuid() + " / Provider: " + provider.getName());
                 if (!provider.isRunning(job)) {
                     // Mark as complete first, then retrieve result. It may take a while to download result, so
-                    // we don't what this attempted again, thus marking it complete first.
-                    LOGGER.debug("Job: " + job.getUuid() + " / Publishing new JobUpdateEvent - Setting state to completed");
-                    EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.COMPLETED));
+                    // we don't what this attempted again, thus marking it complete first. Only the check which
+                    // succeeds in completing the job retrieves the result.
+                    LOGGER.debug("Job: " + job.getUuid() + " / Setting state to completed");
+                    if (!complete(job)) {
+                        return;
+                    }
                     provider.getResult(job);
                     // Now that the result has been downloaded check if a publisher was defined and if so, send event.
                     if (!StringUtils.isEmpty(job.getPublisher())) {
                         LOGGER.debug("Job: " + job.getUuid() + " / Publishing new JobPublishingEvent");
                         EventService.getInstance().publish(new JobPublishEvent(job.getUuid()));
                     }
+                } else {
+                    // Still running. Let the JobManager decide when to check on the job again.
+                    JobManager.getInstance().progressChecked(job.getUuid(),
+                            provider.getEstimatedTimeRemaining(job), provider.getMaxProgressCheckInterval());
                 }
             } catch (Throwable ex) {
                 LOGGER.error(ex.getMessage());
@@ -81,4 +93,22 @@ public class JobProgressCheckWorker implements Subscriber {
             }
         }
     }
+
+    /**
+     * Transitions the job from in progress to completed.
+     * @return true if the job was completed by this check
+     */
+    private boolean complete(Job job) {
+        try (QueryManager qm = new QueryManager()) {
+            if (!qm.transitionJob(job.getUuid(), State.IN_PROGRESS, State.COMPLETED)) {
+                LOGGER.debug("Job: " + job.getUuid() + " / Completed or modified concurrently");
+                return false;
+            }
+            final Job current = qm.getJob(job.getUuid(), new SystemAccount());
+            if (current != null) {
+                JobManager.getInstance().jobStateChanged(current);
+            }
+            return true;
+        }
+    }
 }
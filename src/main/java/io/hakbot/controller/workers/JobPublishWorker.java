@@ -26,7 +26,6 @@ import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.SystemAccount;
 import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.publishers.Publisher;
-import java.lang.reflect.Constructor;
 
 /**
  * The JobPublishWorker is a Subscriber, that when a JobPublishEvent is fired,
@@ -52,10 +51,7 @@ public class JobPublishWorker implements Subscriber {
             final boolean initialized;
             try {
                 final ExpectedClassResolver resolver = new ExpectedClassResolver();
-                final Class clazz = resolver.resolvePublisher(job);
-                @SuppressWarnings("unchecked")
-                final Constructor<?> con = clazz.getConstructor();
-                final Publisher publisher = (Publisher) con.newInstance();
+                final Publisher publisher = resolver.resolveRegisteredPublisher(job).newInstance();
 
                 initialized = publisher.initialize(job);
                 if (initialized) {
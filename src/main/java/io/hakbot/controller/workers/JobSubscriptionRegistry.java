@@ -0,0 +1,104 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.logging.Logger;
+import io.hakbot.controller.model.JobEvent;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * The JobSubscriptionRegistry informs clients which are waiting on a job, such as event
+ * streams and long-polling requests, of the events of the job as soon as they are committed.
+ * Waiting clients are held in memory and do not query the database while they wait.
+ *
+ * Events committed by different threads may be delivered out of order. Listeners should
+ * use the sequence number of the events to detect gaps.
+ */
+public final class JobSubscriptionRegistry {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(JobSubscriptionRegistry.class);
+
+    private static final JobSubscriptionRegistry INSTANCE = new JobSubscriptionRegistry();
+
+    private final Map<String, Set<Listener>> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * A Listener is called on the thread which committed the event, and must not block.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void eventCommitted(JobEvent event);
+    }
+
+    /**
+     * A Subscription is closed once the client no longer waits on the job.
+     */
+    public interface Subscription extends AutoCloseable {
+        void close();
+    }
+
+    private JobSubscriptionRegistry() { }
+
+    public static JobSubscriptionRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Subscribes the listener to the events of the specified job.
+     * @param uuid the UUID of the job
+     * @param listener the listener to inform of events
+     * @return the subscription, which must be closed to unsubscribe
+     */
+    public Subscription subscribe(String uuid, Listener listener) {
+        listeners.compute(uuid, (key, subscribed) -> {
+            final Set<Listener> set = (subscribed != null) ? subscribed : new CopyOnWriteArraySet<>();
+            set.add(listener);
+            return set;
+        });
+        return () -> listeners.computeIfPresent(uuid, (key, subscribed) -> {
+            subscribed.remove(listener);
+            return subscribed.isEmpty() ? null : subscribed;
+        });
+    }
+
+    /**
+     * Informs the listeners of the job of events which have been committed.
+     * @param uuid the UUID of the job
+     * @param events the events, in the order of their sequence numbers
+     */
+    public void eventsCommitted(String uuid, List<JobEvent> events) {
+        final Set<Listener> subscribed = listeners.get(uuid);
+        if (subscribed == null) {
+            return;
+        }
+        for (Listener listener: subscribed) {
+            for (JobEvent event: events) {
+                try {
+                    listener.eventCommitted(event);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unable to inform listener of job " + uuid + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+}
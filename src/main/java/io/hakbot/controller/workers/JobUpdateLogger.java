@@ -17,100 +17,25 @@
 package io.hakbot.controller.workers;
 
 import alpine.event.framework.Event;
-import alpine.event.framework.EventService;
 import alpine.event.framework.Subscriber;
-import alpine.logging.Logger;
-import io.hakbot.controller.event.JobPublishEvent;
 import io.hakbot.controller.event.JobUpdateEvent;
-import io.hakbot.controller.model.Job;
-import io.hakbot.controller.model.JobArtifact;
-import io.hakbot.controller.model.SystemAccount;
-import io.hakbot.controller.persistence.QueryManager;
-import io.hakbot.providers.SynchronousProvider;
-import org.apache.commons.lang3.StringUtils;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 
 /**
  * The JobUpdateLogger is a Subscriber, that when a JobUpdateEvent is fired,
  * will update specific aspects of a job including job state, processing
- * messages, and the automatic updating of various timestamps.
+ * messages, and the automatic updating of various timestamps. Processing
+ * messages and state changes are appended to the event log of the job.
+ * Updates are handed to the JobUpdateWriter, which writes them in order
+ * and in batches.
  *
  * @see JobUpdateEvent
+ * @see JobUpdateWriter
  */
 public class JobUpdateLogger implements Subscriber {
 
-    private static final Logger LOGGER = Logger.getLogger(JobUpdateLogger.class);
-
     public void inform(Event e) {
         if (e instanceof JobUpdateEvent) {
-            final JobUpdateEvent event = (JobUpdateEvent)e;
-            final QueryManager qm = new QueryManager();
-            final Job job = qm.getJob(event.getJobUuid(), new SystemAccount());
-            if (job != null) {
-                if (event.getMessages() != null) {
-                    for (String message: event.getMessages()) {
-                        if (StringUtils.isNotBlank(message)) {
-                            addMessage(job, message);
-                        }
-                    }
-                }
-                if (event.getState() != null) {
-                    // Check to see if the job already failed. If so, do not update state anymore
-                    if (job.getState() != State.FAILED) {
-                        final State state = event.getState();
-                        if (job.getState() != state) {
-                            addMessage(job, "Job state changed to " + state.getValue());
-                        }
-                        job.setState(event.getState());
-                        if (state == State.CANCELED || state == State.COMPLETED || state == State.FAILED || state == State.PUBLISHED) {
-                            job.setCompleted(new Date());
-                        } else if (state == State.IN_PROGRESS) {
-                            job.setStarted(new Date());
-                        } else if (state == State.CREATED) {
-                            job.setCreated(new Date());
-                        }
-                    }
-                }
-                if (event.getResult() != null) {
-                    qm.setJobArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.BINARY.value(), event.getResult().getBytes(), null, null);
-                }
-                qm.updateJob(job);
-
-                // Job has been updated, now check if a publisher was defined and if so, send event.
-                if (event.getState() == State.COMPLETED && !StringUtils.isEmpty(job.getPublisher())) {
-                    // First check to see if provider is sync or async. sync providers will be informed to
-                    // publish here, while async provider will be informed to publish in JobProgressCheckWorker
-                    final ExpectedClassResolver resolver = new ExpectedClassResolver();
-                    try {
-                        final Class clazz = resolver.resolveProvider(job);
-                        if (SynchronousProvider.class.isAssignableFrom(clazz)) {
-                            EventService.getInstance().publish(new JobPublishEvent(job.getUuid()));
-                        }
-                    } catch (ClassNotFoundException | ExpectedClassResolverException ex) {
-                        LOGGER.error(ex.getMessage());
-                    }
-                }
-            }
-            qm.close();
-        }
-    }
-
-    private void addMessage(Job job, String message) {
-        if (StringUtils.isEmpty(message)) {
-            return;
-        }
-        final Date date = new Date();
-        Calendar c = Calendar.getInstance();
-        c.setTime(date);
-        final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        final String timestamp = formatter.format(date);
-        final StringBuilder sb = new StringBuilder();
-        if (!StringUtils.isEmpty(job.getMessage())) {
-            sb.append(job.getMessage()).append("\n");
+            JobUpdateWriter.getInstance().submit((JobUpdateEvent) e);
         }
-        sb.append(timestamp).append(" - ").append(message);
-        job.setMessage(sb.toString());
     }
 }
@@ -0,0 +1,271 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.Config;
+import alpine.event.framework.EventService;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.controller.event.JobPublishEvent;
+import io.hakbot.controller.event.JobUpdateEvent;
+import io.hakbot.controller.model.Job;
+import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.model.JobEvent;
+import io.hakbot.controller.model.SystemAccount;
+import io.hakbot.controller.persistence.QueryManager;
+import org.apache.commons.lang3.StringUtils;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JobUpdateWriter is the single writer of job updates. JobUpdateEvents are
+ * queued as they arrive and drained by one thread in batches. The events of each
+ * job are applied in the order they were received, and all jobs of a batch are
+ * committed in a single transaction, so that a provider emitting many messages
+ * causes one write of the job rather than one per message. Once the batch has
+ * been committed, the JobManager is informed of the resulting state of each job.
+ *
+ * @see JobUpdateEvent
+ */
+public final class JobUpdateWriter {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(JobUpdateWriter.class);
+
+    // The single instance of the JobUpdateWriter
+    private static final JobUpdateWriter INSTANCE = new JobUpdateWriter();
+
+    // The number of times the updates of a job are written before a conflicting update is given up on
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final int batchSize = Math.max(1, Config.getInstance().getPropertyAsInt(HakbotConfigKey.JOB_UPDATE_BATCH_SIZE));
+    private final BlockingQueue<JobUpdateEvent> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread = new Thread(new Writer(), "Hakbot-JobUpdateWriter");
+    private volatile boolean running = true;
+
+    private JobUpdateWriter() {
+        LOGGER.info("Initializing JobUpdateWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Return an instance of the JobUpdateWriter instance
+     * @return a JobUpdateWriter instance
+     */
+    public static JobUpdateWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues the update to be written with the next batch.
+     */
+    public void submit(JobUpdateEvent event) {
+        if (!running) {
+            LOGGER.warn("JobUpdateWriter is shut down. Discarding update for job: " + event.getJobUuid());
+            return;
+        }
+        queue.offer(event);
+    }
+
+    /**
+     * Stops accepting updates and waits for the queued updates to be written.
+     */
+    public void shutdown() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drains the queue in batches of up to batchSize updates. Once shutdown has been
+     * requested, the remaining updates are written before the thread exits.
+     */
+    private class Writer implements Runnable {
+        public void run() {
+            while (true) {
+                final JobUpdateEvent first;
+                try {
+                    first = running ? queue.take() : queue.poll();
+                } catch (InterruptedException e) {
+                    continue; // Shutdown was requested. Write what remains.
+                }
+                if (first == null) {
+                    return;
+                }
+                final List<JobUpdateEvent> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                try {
+                    write(batch);
+                } catch (Throwable t) {
+                    LOGGER.error("Unable to write job updates: " + t.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of updates. If the batch cannot be committed as a whole, the
+     * updates of each job are retried individually so that one job does not prevent
+     * the updates of others from being written.
+     */
+    private void write(List<JobUpdateEvent> batch) {
+        // Groups the updates by job, preserving the order in which the updates were received
+        final Map<String, List<JobUpdateEvent>> updates = new LinkedHashMap<>();
+        for (JobUpdateEvent event: batch) {
+            updates.computeIfAbsent(event.getJobUuid(), k -> new ArrayList<>()).add(event);
+        }
+        try {
+            write(updates);
+        } catch (RuntimeException e) {
+            if (updates.size() > 1) {
+                LOGGER.warn("Unable to write batch of job updates. Retrying each job individually: " + e.getMessage());
+            }
+            for (Map.Entry<String, List<JobUpdateEvent>> entry: updates.entrySet()) {
+                write(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the updates of a single job. Jobs are also transitioned outside of the writer
+     * (for example when a worker claims a job), so a write may conflict with a concurrent
+     * modification of the job, or with events appended to it concurrently. The job is then read again and the updates are applied to
+     * its current state, up to MAX_ATTEMPTS times. Updates which cannot be written are
+     * recorded in the event log of the job.
+     */
+    private void write(String uuid, List<JobUpdateEvent> events) {
+        final Map<String, List<JobUpdateEvent>> single = new LinkedHashMap<>();
+        single.put(uuid, events);
+        RuntimeException failure = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                write(single);
+                return;
+            } catch (RuntimeException e) {
+                failure = e;
+                if (!QueryManager.isConflict(e)) {
+                    break;
+                }
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Job " + uuid + " was modified concurrently. Writing updates again (attempt " + attempt + ")");
+                }
+            }
+        }
+        LOGGER.error("Unable to write updates for job " + uuid + ": " + failure.getMessage());
+        try (QueryManager qm = new QueryManager()) {
+            final Job job = qm.getJob(uuid, new SystemAccount());
+            if (job != null) {
+                qm.addJobEvent(job, JobEvent.Level.ERROR, "Unable to write " + events.size()
+                        + " update(s) of the job: " + failure.getMessage(), null, null);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to record failed updates for job " + uuid + ": " + e.getMessage());
+        }
+    }
+
+    private void write(Map<String, List<JobUpdateEvent>> updates) {
+        final Set<String> stateChanged = new HashSet<>();
+        final Set<String> completed = new HashSet<>();
+        try (QueryManager qm = new QueryManager()) {
+            storeResults(qm, updates);
+            final List<Job> jobs = qm.updateJobs(updates.keySet(), job -> {
+                for (JobUpdateEvent event: updates.get(job.getUuid())) {
+                    apply(qm, job, event, stateChanged, completed);
+                }
+            });
+
+            // Now that the updates have been committed, let the JobManager dispatch or track the jobs
+            for (Job job: jobs) {
+                if (stateChanged.contains(job.getUuid())) {
+                    JobManager.getInstance().jobStateChanged(job);
+                }
+                // Job has been completed, now check if a publisher was defined and if so, send event.
+                if (completed.contains(job.getUuid()) && !StringUtils.isEmpty(job.getPublisher())) {
+                    // First check to see if provider is sync or async. sync providers will be informed to
+                    // publish here, while async provider will be informed to publish in JobProgressCheckWorker
+                    final ExpectedClassResolver resolver = new ExpectedClassResolver();
+                    try {
+                        if (!resolver.resolveRegisteredProvider(job).isAsynchronous()) {
+                            EventService.getInstance().publish(new JobPublishEvent(job.getUuid()));
+                        }
+                    } catch (ClassNotFoundException | ExpectedClassResolverException ex) {
+                        LOGGER.error(ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Results may be large and are stored ahead of, and separately from, the batch.
+     */
+    private void storeResults(QueryManager qm, Map<String, List<JobUpdateEvent>> updates) {
+        for (Map.Entry<String, List<JobUpdateEvent>> entry: updates.entrySet()) {
+            for (JobUpdateEvent event: entry.getValue()) {
+                if (event.getResult() != null) {
+                    final Job job = qm.getJob(entry.getKey(), new SystemAccount());
+                    if (job != null) {
+                        qm.setJobArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.BINARY.value(), event.getResult().getBytes(), null, null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a single update to the job. Must be called within the batch transaction.
+     */
+    private void apply(QueryManager qm, Job job, JobUpdateEvent event, Set<String> stateChanged, Set<String> completed) {
+        final JobEvent.Level level = (event.getState() == State.FAILED) ? JobEvent.Level.ERROR : JobEvent.Level.INFO;
+        if (event.getMessages() != null) {
+            for (String message: event.getMessages()) {
+                if (StringUtils.isNotBlank(message)) {
+                    qm.addJobEvent(job, level, message, null, null);
+                }
+            }
+        }
+        if (event.getState() != null) {
+            final State state = event.getState();
+            if (job.getState() != state) {
+                // Transitions not permitted by the state machine (such as out of a final state) are discarded
+                if (qm.changeJobState(job, state, level)) {
+                    if (state == State.COMPLETED) {
+                        completed.add(job.getUuid());
+                    }
+                } else {
+                    LOGGER.warn("Job " + job.getUuid() + " cannot transition from "
+                            + job.getState().getValue() + " to " + state.getValue());
+                }
+            }
+            stateChanged.add(job.getUuid());
+        }
+    }
+
+}
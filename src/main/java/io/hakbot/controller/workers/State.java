@@ -16,6 +16,13 @@
  */
 package io.hakbot.controller.workers;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * This Enum class represents all of the possible states a Job can have.
  * <li>In Queue - The job is in the queue and is waiting for available job slots to become available.</li>
@@ -25,6 +32,9 @@ package io.hakbot.controller.workers;
  * <li>Paused - The thread executing a job was requested to pause execution. Paused jobs still take up available job slots because the threads executing them are still active.</li>
  * <li>Unavailable - A job in the queue was scheduled to be executed (in progress) but the provider was not available to process the job.</li>
  * <li>Failed - The job encountered an error. Failed jobs are not retried.</li>
+ *
+ * The transitions a job may make between states are defined by {@link #canTransitionTo(State)}.
+ * Published, Canceled and Failed are final states.
  */
 public enum	State {
 
@@ -46,10 +56,29 @@ public enum	State {
         return stateName;
     }
 
+    /**
+     * Determines if a job in this state may transition to the specified state.
+     * Remaining in the same state is not a transition.
+     */
+    public boolean canTransitionTo(State next) {
+        return next != null && TRANSITIONS.get(this).contains(next);
+    }
+
+    /**
+     * Returns true if no transition is possible from this state.
+     */
+    public boolean isFinal() {
+        return TRANSITIONS.get(this).isEmpty();
+    }
+
+    /**
+     * Returns the state with the specified value (such as "In Progress") or name
+     * (such as "IN_PROGRESS"), or null if there is no such state.
+     */
     public static State parse(String stateName) {
         State state = null; // Default
         for (State item : State.values()) {
-            if (item.getValue().equalsIgnoreCase(stateName)) {
+            if (item.getValue().equalsIgnoreCase(stateName) || item.name().equalsIgnoreCase(stateName)) {
                 state = item;
                 break;
             }
@@ -57,4 +86,37 @@ public enum	State {
         return state;
     }
 
+    /**
+     * Determines if a job in this state may eventually reach the specified state.
+     */
+    public boolean canReach(State target) {
+        final Set<State> visited = EnumSet.of(this);
+        final List<State> pending = new ArrayList<>(visited);
+        while (!pending.isEmpty()) {
+            for (State next: TRANSITIONS.get(pending.remove(0))) {
+                if (next == target) {
+                    return true;
+                }
+                if (visited.add(next)) {
+                    pending.add(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final Map<State, Set<State>> TRANSITIONS = new EnumMap<>(State.class);
+    static {
+        // Created jobs may be claimed directly by remote (orbit) workers
+        TRANSITIONS.put(CREATED, EnumSet.of(IN_QUEUE, IN_PROGRESS, CANCELED, FAILED));
+        TRANSITIONS.put(IN_QUEUE, EnumSet.of(IN_PROGRESS, UNAVAILABLE, CANCELED, FAILED));
+        TRANSITIONS.put(UNAVAILABLE, EnumSet.of(IN_QUEUE, IN_PROGRESS, CANCELED, FAILED));
+        // Jobs are claimed before they are initialized, and return to Unavailable if they cannot be processed yet
+        TRANSITIONS.put(IN_PROGRESS, EnumSet.of(COMPLETED, UNAVAILABLE, CANCELED, FAILED));
+        TRANSITIONS.put(COMPLETED, EnumSet.of(PUBLISHED, FAILED));
+        TRANSITIONS.put(PUBLISHED, EnumSet.noneOf(State.class));
+        TRANSITIONS.put(CANCELED, EnumSet.noneOf(State.class));
+        TRANSITIONS.put(FAILED, EnumSet.noneOf(State.class));
+    }
+
 }
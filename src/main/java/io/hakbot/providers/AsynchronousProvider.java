@@ -40,4 +40,24 @@ public interface AsynchronousProvider extends Provider {
      */
     void getResult(Job job);
 
+    /**
+     * Returns the estimated number of seconds remaining until the provider
+     * completes the specified job. This method is called after each progress
+     * check that finds the job still running, and the next check is deferred
+     * until then. By default, the time remaining is unknown (-1) and checks
+     * follow an exponential backoff.
+     */
+    default long getEstimatedTimeRemaining(Job job) {
+        return -1;
+    }
+
+    /**
+     * Returns the maximum number of seconds between progress checks of jobs
+     * processed by this provider. Providers with typically short-lived jobs
+     * may lower this value. By default (-1), the system maximum is used.
+     */
+    default long getMaxProgressCheckInterval() {
+        return -1;
+    }
+
 }
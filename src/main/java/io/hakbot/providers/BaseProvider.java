@@ -18,9 +18,18 @@ package io.hakbot.providers;
 
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.plugin.BasePlugin;
+import io.hakbot.controller.plugin.RemoteInstance;
+import io.hakbot.controller.workers.AdmissionController;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class BaseProvider extends BasePlugin implements Provider {
 
+    // Used to rotate between equally loaded remote instances
+    private static final AtomicInteger ROUND_ROBIN = new AtomicInteger();
+
     /**
      * This method is called prior to any other method and is intended to initialize
      * the instance of the provider. This method can be overwritten if initialization
@@ -54,4 +63,45 @@ public abstract class BaseProvider extends BasePlugin implements Provider {
         return true;
     }
 
+    /**
+     * Selects the remote instance a job should be processed by. If the name
+     * matches the alias of an instance, that instance is used. Otherwise, the
+     * name identifies a group of instances (or all instances if the name is
+     * null) and the least loaded instance of the group is chosen. Instances
+     * with a free slot are preferred over saturated ones, followed by the
+     * instance processing the fewest jobs. Ties are broken in a round robin
+     * fashion so that work is spread across equally loaded instances.
+     *
+     * Returns null if no instance matches.
+     */
+    protected RemoteInstance selectRemoteInstance(Map<String, RemoteInstance> instanceMap, String name) {
+        if (name != null && instanceMap.containsKey(name)) {
+            return instanceMap.get(name);
+        }
+        final List<RemoteInstance> candidates = new ArrayList<>();
+        for (RemoteInstance instance: instanceMap.values()) {
+            if (name == null || name.equals(instance.getGroup())) {
+                candidates.add(instance);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        final int offset = Math.abs(ROUND_ROBIN.getAndIncrement() % candidates.size());
+        RemoteInstance selected = null;
+        boolean selectedSaturated = true;
+        int selectedActive = Integer.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            final RemoteInstance instance = candidates.get((offset + i) % candidates.size());
+            final int active = AdmissionController.getInstance().getActiveCount(AdmissionController.getKey(this.getClass().getName(), instance));
+            final boolean saturated = instance.getMaxConcurrent() > 0 && active >= instance.getMaxConcurrent();
+            if (selected == null || (selectedSaturated && !saturated) || (selectedSaturated == saturated && active < selectedActive)) {
+                selected = instance;
+                selectedSaturated = saturated;
+                selectedActive = active;
+            }
+        }
+        return selected;
+    }
+
 }
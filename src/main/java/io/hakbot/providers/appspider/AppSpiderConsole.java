@@ -22,7 +22,6 @@ import io.hakbot.controller.model.Job;
 import io.hakbot.controller.plugin.BasePlugin;
 import io.hakbot.controller.plugin.Console;
 import io.hakbot.controller.plugin.RemoteInstance;
-import io.hakbot.providers.appspider.ws.NTOService;
 import io.hakbot.providers.appspider.ws.NTOServiceSoap;
 import java.util.Map;
 
@@ -33,8 +32,7 @@ public class AppSpiderConsole extends BasePlugin implements Console {
 
     public Object console(Job job, Map parameters) {
         final RemoteInstance remoteInstance = getRemoteInstance(job);
-        final NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        final NTOServiceSoap soap = service.getNTOServiceSoap();
+        final NTOServiceSoap soap = AppSpiderPortCache.getInstance().getPort(remoteInstance);
         final String token = UuidUtil.stripHyphens(job.getUuid());
         return soap.getStatus2(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
     }
@@ -0,0 +1,90 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.providers.appspider;
+
+import io.hakbot.controller.plugin.RemoteInstance;
+import io.hakbot.providers.appspider.ws.NTOService;
+import io.hakbot.providers.appspider.ws.NTOServiceSoap;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The AppSpiderPortCache holds one SOAP port per AppSpider instance. Ports are built from
+ * the WSDL bundled with the provider, which is parsed once, and connect to the address of
+ * the instance. The WSDL of the instance is never downloaded. Ports are shared by all jobs
+ * of the instance and may be used concurrently, as their request context is only modified
+ * when they are created. Requests ask for the HTTP connection to be kept alive, so that
+ * connections are reused between requests to the same instance.
+ */
+final class AppSpiderPortCache {
+
+    private static final AppSpiderPortCache INSTANCE = new AppSpiderPortCache();
+
+    private static final URL WSDL_LOCATION = AppSpiderPortCache.class.getResource("NTOService.wsdl");
+    private static final Map<String, List<String>> KEEP_ALIVE = Collections.singletonMap("Connection", Collections.singletonList("keep-alive"));
+
+    private final Map<String, NTOServiceSoap> ports = new ConcurrentHashMap<>();
+    private volatile NTOService service;
+
+    private AppSpiderPortCache() { }
+
+    static AppSpiderPortCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the port of the specified instance, creating it if necessary.
+     */
+    NTOServiceSoap getPort(RemoteInstance instance) {
+        return ports.computeIfAbsent(instance.getUrl(), url -> {
+            final NTOServiceSoap port = getService().getNTOServiceSoap();
+            final Map<String, Object> context = ((BindingProvider) port).getRequestContext();
+            context.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, getEndpointAddress(url));
+            context.put(MessageContext.HTTP_REQUEST_HEADERS, KEEP_ALIVE);
+            return port;
+        });
+    }
+
+    private NTOService getService() {
+        NTOService current = service;
+        if (current == null) {
+            synchronized (this) {
+                current = service;
+                if (current == null) {
+                    current = new NTOService(WSDL_LOCATION, AppSpiderConstants.SERVICE_NAME);
+                    service = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Instances may be configured with the URL of their WSDL. Requests are sent to the
+     * URL of the service itself.
+     */
+    private static String getEndpointAddress(String url) {
+        final int query = url.indexOf('?');
+        return (query < 0) ? url : url.substring(0, query);
+    }
+
+}
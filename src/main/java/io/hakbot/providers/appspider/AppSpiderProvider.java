@@ -27,12 +27,11 @@ import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
 import io.hakbot.controller.workers.State;
 import io.hakbot.providers.AsynchronousProvider;
 import io.hakbot.providers.BaseProvider;
-import io.hakbot.providers.appspider.ws.NTOService;
 import io.hakbot.providers.appspider.ws.NTOServiceSoap;
 import io.hakbot.providers.appspider.ws.Result;
 import io.hakbot.providers.appspider.ws.SCANSTATUS2;
 import io.hakbot.util.JsonUtil;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
@@ -45,6 +44,7 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Base64;
 import java.util.Map;
@@ -57,16 +57,20 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
     private static Map<String, RemoteInstance> instanceMap = new RemoteInstanceAutoConfig().
             createMap(Type.PROVIDER, AppSpiderConstants.PLUGIN_ID);
 
+    // A new provider is created for each progress check, which asks isRunning() before getEstimatedTimeRemaining()
+    private long estimatedTimeRemaining = -1;
 
     @Override
     public boolean initialize(Job job) {
         final JsonObject payload = JsonUtil.toJsonObject(getProviderPayload(job).getContents());
-        if (!JsonUtil.requiredParams(payload, "instance", "scanConfig")) {
-            addProcessingMessage(job, "Invalid request. Expected parameters: [instance], [config]");
+        if (!JsonUtil.requiredParams(payload, "scanConfig")) {
+            addProcessingMessage(job, "Invalid request. Expected parameters: [scanConfig]");
             return false;
         }
-        final RemoteInstance remoteInstance = instanceMap.get(JsonUtil.getString(payload, "instance"));
+        // The instance may be the alias of an instance, a group of instances, or omitted to use any instance
+        final RemoteInstance remoteInstance = selectRemoteInstance(instanceMap, JsonUtil.getString(payload, "instance"));
         if (remoteInstance == null) {
+            addProcessingMessage(job, "Unable to find an AppSpider instance matching the requested instance or group");
             return false;
         }
         // Save the remote instance used for this job
@@ -82,8 +86,7 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
         // Retrieve the remote instance defined during initialization
         final RemoteInstance remoteInstance = getRemoteInstance(job);
 
-        final NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        final NTOServiceSoap soap = service.getNTOServiceSoap();
+        final NTOServiceSoap soap = AppSpiderPortCache.getInstance().getPort(remoteInstance);
 
         // Retrieve UUID from job and use it as the AppSpider scan token
         final String token = UuidUtil.stripHyphens(job.getUuid());
@@ -107,10 +110,26 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
         // Retrieve the remote instance defined during initialization
         final RemoteInstance remoteInstance = getRemoteInstance(job);
         final String token = getJobProperty(job, "token");
-        final NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        final NTOServiceSoap soap = service.getNTOServiceSoap();
-        final Result runningResult = soap.isScanRunning(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
-        return !runningResult.getData().equalsIgnoreCase("false");
+        final NTOServiceSoap soap = AppSpiderPortCache.getInstance().getPort(remoteInstance);
+        // The status tells both whether the scan is running and how long it is expected to take
+        final SCANSTATUS2 status = soap.getStatus2(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+        if (status == null) {
+            final Result runningResult = soap.isScanRunning(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+            return !runningResult.getData().equalsIgnoreCase("false");
+        }
+        if (status.getStatus2() != null) {
+            estimatedTimeRemaining = parseDuration(status.getStatus2().getMSzTimeRemaining());
+        }
+        return status.isRunning();
+    }
+
+    /**
+     * Returns the time remaining as reported by AppSpider for the scan when its status was
+     * last checked by {@link #isRunning(Job)}, or -1 if AppSpider is unable to estimate it.
+     */
+    @Override
+    public long getEstimatedTimeRemaining(Job job) {
+        return estimatedTimeRemaining;
     }
 
     @Override
@@ -135,9 +154,10 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
                 updateState(job, State.FAILED, "Unable to download report file. Status Code: " + statusLine.getStatusCode());
             }
 
-            // Convert result to byte array and save it
-            final byte[] results = IOUtils.toByteArray(entity.getContent());
-            addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), results, "VulnerabilitySummary_" + job.getUuid() + ".xml");
+            // Stream the result into storage
+            try (InputStream content = entity.getContent()) {
+                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), content, "VulnerabilitySummary_" + job.getUuid() + ".xml");
+            }
         } catch (IOException e) {
             updateState(job, State.FAILED, "Unable to get scan result", e.getMessage());
         }
@@ -148,8 +168,7 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
         final RemoteInstance remoteInstance = getRemoteInstance(job);
 
         updateState(job, State.CANCELED);
-        final NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        final NTOServiceSoap soap = service.getNTOServiceSoap();
+        final NTOServiceSoap soap = AppSpiderPortCache.getInstance().getPort(remoteInstance);
         final String token = UuidUtil.stripHyphens(job.getUuid());
         final Result running = soap.isScanRunning(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
         if (running.getData().equalsIgnoreCase("true")) {
@@ -163,9 +182,7 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
     public boolean isAvailable(Job job) {
         // Retrieve the remote instance defined during initialization
         final RemoteInstance remoteInstance = getRemoteInstance(job);
-        final
-        NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        final NTOServiceSoap soap = service.getNTOServiceSoap();
+        final NTOServiceSoap soap = AppSpiderPortCache.getInstance().getPort(remoteInstance);
         return !soap.isBusy(remoteInstance.getUsername(), remoteInstance.getPassword());
     }
 
@@ -190,6 +207,24 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
         return scanName;
     }
 
+    /**
+     * Converts a duration in the form of [[hh:]mm:]ss into seconds. Returns -1 if
+     * the duration cannot be parsed.
+     */
+    private long parseDuration(String duration) {
+        if (StringUtils.isBlank(duration)) {
+            return -1;
+        }
+        long seconds = 0;
+        for (String part: duration.trim().split(":")) {
+            if (!StringUtils.isNumeric(part)) {
+                return -1;
+            }
+            seconds = seconds * 60 + Long.parseLong(part);
+        }
+        return seconds;
+    }
+
     public Class<? extends Console> getConsoleClass() {
         return AppSpiderConsole.class;
     }
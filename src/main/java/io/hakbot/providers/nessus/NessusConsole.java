@@ -21,10 +21,9 @@ import io.hakbot.controller.model.Job;
 import io.hakbot.controller.plugin.BasePlugin;
 import io.hakbot.controller.plugin.Console;
 import io.hakbot.controller.plugin.RemoteInstance;
-import net.continuumsecurity.ClientFactory;
-import net.continuumsecurity.v6.ScanClientV6;
 import javax.json.JsonObject;
 import javax.security.auth.login.LoginException;
+import java.io.IOException;
 import java.util.Map;
 
 public class NessusConsole extends BasePlugin implements Console {
@@ -36,12 +35,9 @@ public class NessusConsole extends BasePlugin implements Console {
         final RemoteInstance remoteInstance = getRemoteInstance(job);
         final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
         try {
-            final ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            final JsonObject details = scan.getScanDetails(scanId);
-            scan.logout();
+            final JsonObject details = NessusSessionPool.getInstance().execute(remoteInstance, scan -> scan.getScanDetails(scanId));
             return details.toString();
-        } catch (LoginException e) {
+        } catch (LoginException | IOException e) {
             LOGGER.error(e.getMessage());
         }
         return null;
@@ -19,9 +19,15 @@ package io.hakbot.providers.nessus;
 abstract class NessusConstants {
 
     static final String PROP_SCAN_ID = "nessus.scan.id";
+    static final String PROP_EXPORT_FILE = "nessus.export.file";
+    static final String PROP_EXPORT_REQUESTED = "nessus.export.requested";
     static final String PLUGIN_ID = "nessus";
     static final String SCAN_NAME = "scanName";
     static final String SCAN_POLICY = "scanPolicy";
     static final String TARGETS = "targets";
+    static final long MAX_PROGRESS_CHECK_INTERVAL = 300;
+    static final long SCAN_STATUS_TTL = 15;
+    static final long EXPORT_TIMEOUT = 1800;
+    static final long SESSION_IDLE_TIMEOUT = 900;
 
 }
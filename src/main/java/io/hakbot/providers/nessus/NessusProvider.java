@@ -27,17 +27,16 @@ import io.hakbot.controller.workers.State;
 import io.hakbot.providers.AsynchronousProvider;
 import io.hakbot.providers.BaseProvider;
 import io.hakbot.util.JsonUtil;
-import net.continuumsecurity.ClientFactory;
 import net.continuumsecurity.v6.ScanClientV6;
 import net.continuumsecurity.v6.model.ExportFormat;
-import org.apache.commons.io.FileUtils;
+import net.continuumsecurity.v6.model.ExportV6;
 import javax.json.JsonObject;
 import javax.security.auth.login.LoginException;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class NessusProvider extends BaseProvider implements AsynchronousProvider, ConsoleIdentifier {
 
@@ -53,7 +52,13 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
             addProcessingMessage(job, "Invalid request. Expected parameters: [scanName], [scanPolicy], [targets]");
             return false;
         }
-        RemoteInstance remoteInstance = instanceMap.get(JsonUtil.getString(payload, "instance"));
+        // The instance may be the alias of an instance, a group of instances, or omitted to use any instance.
+        // If omitted and a URL is specified, an ad-hoc instance is used instead.
+        final String instance = JsonUtil.getString(payload, "instance");
+        RemoteInstance remoteInstance = null;
+        if (instance != null || !payload.containsKey("url")) {
+            remoteInstance = selectRemoteInstance(instanceMap, instance);
+        }
         if (remoteInstance == null) {
             remoteInstance = new RemoteInstance();
             if (!JsonUtil.requiredParams(payload, "url", "username", "password")) {
@@ -86,15 +91,12 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
         final String scanPolicy = getJobProperty(job, NessusConstants.SCAN_POLICY);
         final String targets = getJobProperty(job, NessusConstants.TARGETS);
         try {
-            final ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            final String scanID = scan.newScan(scanName, scanPolicy, targets);
+            final String scanID = NessusSessionPool.getInstance().execute(remoteInstance, scan -> scan.newScan(scanName, scanPolicy, targets));
             // Save the scan ID Nessus assigned to the job
             setJobProperty(job, NessusConstants.PROP_SCAN_ID, scanID);
-            scan.logout();
         } catch (LoginException e) {
             updateState(job, State.FAILED, "Unable to login to Nessus");
-        } catch (RuntimeException e) {
+        } catch (IOException | RuntimeException e) {
             updateState(job, State.FAILED, "Unable to process Nessus job. Likely cause is an invalid scan policy.");
         }
     }
@@ -102,38 +104,91 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
     public boolean isRunning(Job job) {
         // Retrieve the remote instance defined during initialization
         final RemoteInstance remoteInstance = getRemoteInstance(job);
+        final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
+        if (scanId == null) {
+            return true; // The job was claimed, but the scan has not been launched yet
+        }
+        final Integer id = parseScanId(job, scanId);
+        if (id == null) {
+            return false;
+        }
         try {
-            final ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
-            final boolean isRunning = scan.isScanRunning(scanId);
-            scan.logout();
-            return isRunning;
+            // The status of all scans of the instance is fetched at most once per cycle and shared between jobs
+            final String status = NessusScanStatusCache.getInstance().getStatus(remoteInstance, id);
+            if (ScanClientV6.isRunningStatus(status)) {
+                return true;
+            }
+            // The report is exported once the scan has finished. The job is considered running until the
+            // export is ready, so that later progress checks look at it again rather than waiting for it.
+            return !isExportReady(job, remoteInstance, id);
         } catch (LoginException e) {
             updateState(job, State.FAILED, "Unable to login to Nessus");
+        } catch (IOException e) {
+            LOGGER.error("Unable to check status of Nessus scan " + scanId + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Parses the scan ID Nessus assigned to the job, failing the job if it is malformed.
+     * @return the scan ID, or null if it could not be parsed
+     */
+    private Integer parseScanId(Job job, String scanId) {
+        try {
+            return Integer.parseInt(scanId);
+        } catch (NumberFormatException e) {
+            updateState(job, State.FAILED, "Invalid Nessus scan ID: " + scanId);
+            return null;
+        }
+    }
+
+    /**
+     * Requests the export of the report of the scan, or checks once whether the requested export is ready.
+     * @return true if the export is ready to be downloaded
+     */
+    private boolean isExportReady(Job job, RemoteInstance remoteInstance, int scanId) throws IOException, LoginException {
+        final String file = getJobProperty(job, NessusConstants.PROP_EXPORT_FILE);
+        if (file == null) {
+            final ExportV6 export = NessusSessionPool.getInstance().execute(remoteInstance, scan -> scan.export(scanId, ExportFormat.NESSUS));
+            setJobProperty(job, NessusConstants.PROP_EXPORT_FILE, export.getFile());
+            setJobProperty(job, NessusConstants.PROP_EXPORT_REQUESTED, System.currentTimeMillis());
+            return false;
+        }
+        if (NessusSessionPool.getInstance().execute(remoteInstance, scan -> scan.isExportReady(scanId, file))) {
+            return true;
+        }
+        final String requested = getJobProperty(job, NessusConstants.PROP_EXPORT_REQUESTED);
+        if (requested != null && System.currentTimeMillis() - Long.parseLong(requested) > TimeUnit.SECONDS.toMillis(NessusConstants.EXPORT_TIMEOUT)) {
+            throw new IllegalStateException("Export " + file + " of Nessus scan " + scanId + " was not ready in time");
         }
         return false;
     }
 
+    /**
+     * Nessus scans are frequently short-lived (e.g. discovery scans), so progress
+     * checks back off to a lower maximum than long-running dynamic scans.
+     */
+    @Override
+    public long getMaxProgressCheckInterval() {
+        return NessusConstants.MAX_PROGRESS_CHECK_INTERVAL;
+    }
+
     @Override
     public void getResult(Job job) {
         // Retrieve the remote instance defined during initialization
         final RemoteInstance remoteInstance = getRemoteInstance(job);
+        final Integer id = parseScanId(job, getJobProperty(job, NessusConstants.PROP_SCAN_ID));
+        if (id == null) {
+            return;
+        }
         try {
-            final ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
-            final File report = scan.download(Integer.parseInt(scanId), ExportFormat.NESSUS, Paths.get(System.getProperty("java.io.tmpdir")));
-            if (report.exists()) {
-                // Convert result to byte array and save it
-                final byte[] result = FileUtils.readFileToByteArray(report);
-                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), result, job.getUuid() + ".nessus");
-                // Cleanup and logout
-                report.delete();
-                scan.logout();
-            } else {
-                updateState(job, State.FAILED, "Unable to download or save Nessus report");
-            }
+            final String file = getJobProperty(job, NessusConstants.PROP_EXPORT_FILE);
+            NessusSessionPool.getInstance().execute(remoteInstance, scan -> {
+                // Stream the report, which was exported while the job was running, from Nessus straight into storage
+                try (InputStream in = scan.openDownload(id, file)) {
+                    return addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), in, job.getUuid() + ".nessus");
+                }
+            });
         } catch (LoginException e) {
             updateState(job, State.FAILED, "Unable to login to Nessus");
         } catch (IOException e) {
@@ -145,16 +200,21 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
         // Retrieve the remote instance defined during initialization
         final RemoteInstance remoteInstance = getRemoteInstance(job);
         updateState(job, State.CANCELED);
+        final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
+        if (scanId == null) {
+            return true; // The scan was never launched
+        }
         try {
-            final ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-
-            final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
-
-            // todo cancel the job with the specified scanId
+            NessusSessionPool.getInstance().execute(remoteInstance, scan -> {
+                scan.stopScan(Integer.parseInt(scanId));
+                return scanId;
+            });
         } catch (LoginException e) {
             addProcessingMessage(job, "Unable to login to Nessus");
             return false;
+        } catch (IOException | RuntimeException e) {
+            addProcessingMessage(job, "Unable to stop Nessus scan " + scanId + ": " + e.getMessage());
+            return false;
         }
         return true;
     }
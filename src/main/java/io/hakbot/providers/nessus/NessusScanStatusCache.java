@@ -0,0 +1,116 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.providers.nessus;
+
+import io.hakbot.controller.plugin.RemoteInstance;
+import net.continuumsecurity.v6.model.ScanV6;
+import net.continuumsecurity.v6.model.ScansV6;
+import javax.security.auth.login.LoginException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The NessusScanStatusCache holds a snapshot of the status of all scans of each Nessus
+ * instance and account, indexed by scan ID. The snapshot is fetched with a single request and shared
+ * by the progress checks of all jobs of the instance until it expires, rather than each
+ * check downloading the list of scans.
+ */
+final class NessusScanStatusCache {
+
+    private static final NessusScanStatusCache INSTANCE = new NessusScanStatusCache();
+
+    private static final long TTL = TimeUnit.SECONDS.toMillis(NessusConstants.SCAN_STATUS_TTL);
+
+    // Scans created after a snapshot was fetched cause a refresh, but not more often than this
+    private static final long MIN_REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private NessusScanStatusCache() { }
+
+    static NessusScanStatusCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the status of the scan (such as running, paused or completed), or null if
+     * the instance does not have a scan with the specified ID.
+     */
+    String getStatus(RemoteInstance instance, int scanId) throws LoginException, IOException {
+        final Snapshot snapshot = getSnapshot(instance, TTL);
+        final String status = snapshot.statuses.get(scanId);
+        if (status != null) {
+            return status;
+        }
+        // The scan may have been created after the snapshot was fetched
+        return getSnapshot(instance, MIN_REFRESH_INTERVAL).statuses.get(scanId);
+    }
+
+    /**
+     * Returns a snapshot of the instance that is no older than the specified age, fetching
+     * a new one if necessary. Only one request fetches the snapshot of an instance at a time;
+     * concurrent requests wait for it and share the result.
+     */
+    private Snapshot getSnapshot(RemoteInstance instance, long maxAge) throws LoginException, IOException {
+        // The scans listed depend on the account, so snapshots are kept per session rather than per URL
+        final String key = NessusSessionPool.getKey(instance);
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && snapshot.getAge() < maxAge) {
+            return snapshot;
+        }
+        synchronized (lockFor(key)) {
+            snapshot = snapshots.get(key);
+            if (snapshot == null || snapshot.getAge() >= maxAge) {
+                final ScansV6 scans = NessusSessionPool.getInstance().execute(instance, client -> client.listScans());
+                snapshot = new Snapshot(scans);
+                snapshots.put(key, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    private Object lockFor(String key) {
+        return locks.computeIfAbsent(key, k -> new Object());
+    }
+
+    private static class Snapshot {
+        private final long fetched = System.currentTimeMillis();
+        private final Map<Integer, String> statuses;
+
+        private Snapshot(ScansV6 scans) {
+            if (scans == null || scans.getScans() == null) {
+                statuses = Collections.emptyMap();
+                return;
+            }
+            final Map<Integer, String> map = new HashMap<>();
+            for (ScanV6 scan: scans.getScans()) {
+                map.put(scan.getId(), scan.getStatus());
+            }
+            statuses = map;
+        }
+
+        private long getAge() {
+            return System.currentTimeMillis() - fetched;
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.providers.nessus;
+
+import alpine.logging.Logger;
+import io.hakbot.controller.plugin.RemoteInstance;
+import net.continuumsecurity.v6.ScanClientV6;
+import org.apache.commons.lang3.StringUtils;
+import javax.security.auth.login.LoginException;
+import javax.ws.rs.NotAuthorizedException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The NessusSessionPool holds one long-lived, authenticated client per Nessus instance.
+ * Clients are created and authenticated once and reused by all jobs of the instance,
+ * so that a request to Nessus does not incur SSL setup, login and logout. Instances
+ * configured with an API key (access key) and token (secret key) authenticate with
+ * them instead of a session. When Nessus rejects the session, the client logs in
+ * again and the request is retried once. Sessions which have not been used for
+ * SESSION_IDLE_TIMEOUT seconds are logged out and removed, so that ad-hoc instances
+ * supplied by jobs do not accumulate.
+ */
+final class NessusSessionPool {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(NessusSessionPool.class);
+
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(NessusConstants.SESSION_IDLE_TIMEOUT);
+
+    private static final NessusSessionPool INSTANCE = new NessusSessionPool();
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Hakbot-NessusSessionEvictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * An operation performed using an authenticated client.
+     */
+    @FunctionalInterface
+    interface Operation<T> {
+        T apply(ScanClientV6 client) throws IOException;
+    }
+
+    private NessusSessionPool() {
+        evictor.scheduleWithFixedDelay(this::evictIdleSessions, 1, 1, TimeUnit.MINUTES);
+    }
+
+    static NessusSessionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Performs the operation using the authenticated client of the instance.
+     * @param instance the Nessus instance
+     * @param operation the operation to perform
+     * @return the result of the operation
+     * @throws LoginException if the client is unable to authenticate
+     */
+    <T> T execute(RemoteInstance instance, Operation<T> operation) throws LoginException, IOException {
+        // The session is marked in use while the map entry is locked, so that it cannot be evicted concurrently
+        final Session session = sessions.compute(getKey(instance), (key, current) -> {
+            final Session s = (current != null) ? current
+                    : new Session(new ScanClientV6(instance.getUrl(), !instance.isValidateCertificates()));
+            s.users.incrementAndGet();
+            return s;
+        });
+        try {
+            return execute(session, instance, operation);
+        } finally {
+            session.lastUsed = System.currentTimeMillis();
+            session.users.decrementAndGet();
+        }
+    }
+
+    private <T> T execute(Session session, RemoteInstance instance, Operation<T> operation) throws LoginException, IOException {
+        final int generation = session.authenticate(instance);
+        try {
+            return operation.apply(session.client);
+        } catch (NotAuthorizedException e) {
+            LOGGER.info("Nessus session for " + instance.getUrl() + " is no longer valid. Logging in again");
+            session.invalidate(generation);
+        }
+        session.authenticate(instance);
+        try {
+            return operation.apply(session.client);
+        } catch (NotAuthorizedException e) {
+            throw new LoginException("Nessus rejected the credentials of " + instance.getUrl());
+        }
+    }
+
+    /**
+     * Removes the sessions which are not in use and have been idle for longer than
+     * IDLE_TIMEOUT, and logs them out.
+     */
+    private void evictIdleSessions() {
+        final long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT;
+        for (String key: new ArrayList<>(sessions.keySet())) {
+            final Session[] evicted = new Session[1];
+            sessions.computeIfPresent(key, (k, session) -> {
+                if (session.users.get() == 0 && session.lastUsed < cutoff) {
+                    evicted[0] = session;
+                    return null;
+                }
+                return session;
+            });
+            if (evicted[0] != null) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Closing idle Nessus session for " + key.substring(0, key.indexOf('|')));
+                }
+                evicted[0].close();
+            }
+        }
+    }
+
+    /**
+     * Instances are identified by their URL and credentials, as ad-hoc instances supplied
+     * by a job have no alias. The password is not part of the key; if it changes, the
+     * session is rejected and the client logs in again with the new password.
+     */
+    static String getKey(RemoteInstance instance) {
+        return instance.getUrl() + "|" + StringUtils.defaultString(instance.getUsername())
+                + "|" + StringUtils.defaultString(instance.getApiKey()) + "|" + instance.isValidateCertificates();
+    }
+
+    /**
+     * A client along with the state of its authentication. Each successful authentication
+     * increments the generation, so that a session is only invalidated once when many
+     * requests are rejected at the same time.
+     */
+    private static class Session {
+        private final ScanClientV6 client;
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile long lastUsed = System.currentTimeMillis();
+        private boolean authenticated;
+        private boolean loggedIn;
+        private int generation;
+
+        private Session(ScanClientV6 client) {
+            this.client = client;
+        }
+
+        private synchronized int authenticate(RemoteInstance instance) throws LoginException {
+            if (!authenticated) {
+                if (instance.getApiKey() != null && instance.getToken() != null) {
+                    client.setApiKeys(instance.getApiKey(), instance.getToken());
+                } else {
+                    try {
+                        client.login(instance.getUsername(), instance.getPassword());
+                    } catch (NotAuthorizedException e) {
+                        throw new LoginException("Nessus rejected the credentials of " + instance.getUrl());
+                    }
+                    loggedIn = true;
+                }
+                authenticated = true;
+                generation++;
+            }
+            return generation;
+        }
+
+        private synchronized void invalidate(int generation) {
+            if (this.generation == generation) {
+                authenticated = false;
+            }
+        }
+
+        /**
+         * Logs out of the session, if a session was opened, and releases the connections of the client.
+         */
+        private synchronized void close() {
+            try {
+                if (authenticated && loggedIn) {
+                    client.logout();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("Unable to log out of Nessus: " + e.getMessage());
+            } finally {
+                authenticated = false;
+                client.close();
+            }
+        }
+    }
+
+}
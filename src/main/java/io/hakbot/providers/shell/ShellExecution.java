@@ -0,0 +1,193 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.providers.shell;
+
+import alpine.logging.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ShellExecution is a command started by the ShellProvider. STDOUT and STDERR are drained
+ * concurrently into temporary files while the command runs, so that the command never blocks
+ * on a full pipe and its output is never held in memory. Output beyond the maximum is discarded.
+ */
+class ShellExecution {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(ShellExecution.class);
+
+    private final Process process;
+    private final Drainer stdout;
+    private final Drainer stderr;
+    private final AtomicInteger running = new AtomicInteger(2);
+    private final Runnable onExit;
+    private volatile boolean timedOut;
+
+    /**
+     * Starts the command.
+     * @param command the command and its arguments
+     * @param maxOutput the maximum number of bytes retained from STDOUT and STDERR each
+     * @param name the name used for the threads draining the output
+     * @param onExit called once the command has exited and its output has been drained
+     */
+    ShellExecution(List<String> command, long maxOutput, String name, Runnable onExit) throws IOException {
+        this.onExit = onExit;
+        this.process = new ProcessBuilder(command).start();
+        try {
+            process.getOutputStream().close();
+            this.stdout = new Drainer(process.getInputStream(), maxOutput, name + "-STDOUT");
+            this.stderr = new Drainer(process.getErrorStream(), maxOutput, name + "-STDERR");
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        stdout.start();
+        stderr.start();
+    }
+
+    boolean isRunning() {
+        return running.get() > 0;
+    }
+
+    int getExitCode() {
+        return process.exitValue();
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    Drainer getStdout() {
+        return stdout;
+    }
+
+    Drainer getStderr() {
+        return stderr;
+    }
+
+    /**
+     * Terminates the command because it exceeded its timeout.
+     */
+    void timeout() {
+        if (process.isAlive()) {
+            timedOut = true;
+            destroy();
+        }
+    }
+
+    /**
+     * Terminates the command, forcibly if it does not exit promptly.
+     * @return true if the command is no longer running
+     */
+    boolean destroy() {
+        process.destroy();
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !process.isAlive();
+    }
+
+    /**
+     * Deletes the output retained from the command.
+     */
+    void discard() {
+        stdout.delete();
+        stderr.delete();
+    }
+
+    private void drained() {
+        if (running.decrementAndGet() == 0) {
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            onExit.run();
+        }
+    }
+
+    /**
+     * Copies a stream of the command into a temporary file until the command closes it.
+     */
+    class Drainer extends Thread {
+        private final InputStream in;
+        private final long maxOutput;
+        private final Path file;
+        private volatile long size;
+        private volatile boolean truncated;
+
+        private Drainer(InputStream in, long maxOutput, String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.in = in;
+            this.maxOutput = maxOutput;
+            this.file = Files.createTempFile("hakbot-shell-", ".out");
+        }
+
+        public void run() {
+            try (InputStream input = in; OutputStream out = Files.newOutputStream(file)) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    final int retained = (int) Math.max(0, Math.min(read, maxOutput - size));
+                    if (retained > 0) {
+                        out.write(buffer, 0, retained);
+                        size += retained;
+                    }
+                    if (retained < read) {
+                        truncated = true; // Keep reading so that the command does not block
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.error("Unable to read output of command: " + e.getMessage());
+            } finally {
+                drained();
+            }
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        private void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to delete " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+}
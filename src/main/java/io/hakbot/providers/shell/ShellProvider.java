@@ -16,25 +16,52 @@
  */
 package io.hakbot.providers.shell;
 
+import alpine.Config;
 import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
-import io.hakbot.controller.workers.JobException;
+import io.hakbot.controller.workers.JobManager;
 import io.hakbot.controller.workers.State;
+import io.hakbot.providers.AsynchronousProvider;
 import io.hakbot.providers.BaseProvider;
-import io.hakbot.providers.SynchronousProvider;
 import io.hakbot.util.JsonUtil;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import javax.json.JsonObject;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-public  class ShellProvider extends BaseProvider implements SynchronousProvider {
+/**
+ * Executes a command on the controller. The command runs in the background and does not
+ * occupy a worker thread. Once it exits, its output is stored as the result of the job.
+ */
+public class ShellProvider extends BaseProvider implements AsynchronousProvider {
 
     // Setup logging
     private static final Logger LOGGER = Logger.getLogger(ShellProvider.class);
-    private Process process;
-    private String command;
+
+    private static final long MAX_TIMEOUT = NumberUtils.toLong(Config.getInstance().getProperty("provider.shell.timeout"), 3600);
+    private static final long MAX_OUTPUT = NumberUtils.toLong(Config.getInstance().getProperty("provider.shell.output.max"), 10485760);
+
+    // Commands which are running or whose result has not been retrieved, by job UUID
+    private static final Map<String, ShellExecution> EXECUTIONS = new ConcurrentHashMap<>();
+    private static final Map<String, ScheduledFuture<?>> TIMEOUTS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Hakbot-ShellTimeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private List<String> command;
+    private long timeout;
 
     public boolean initialize(Job job) {
         final JsonObject payload = JsonUtil.toJsonObject(getProviderPayload(job).getContents());
@@ -42,55 +69,95 @@ public  class ShellProvider extends BaseProvider implements SynchronousProvider
             addProcessingMessage(job, "Invalid request. Expected parameters: [command]");
             return false;
         }
-        command = JsonUtil.getString(payload, "command");
+        command = tokenize(JsonUtil.getString(payload, "command"));
+        if (command.isEmpty()) {
+            addProcessingMessage(job, "Invalid request. The command is empty");
+            return false;
+        }
+        final int requested = JsonUtil.getInt(payload, "timeout");
+        timeout = (requested > 0) ? Math.min(requested, MAX_TIMEOUT) : MAX_TIMEOUT;
         return true;
     }
 
-    public boolean process(Job job) {
-        try (
-                InputStream inputStream = process.getInputStream();
-                InputStream errorStream = process.getErrorStream()) {
-
-            final ProcessBuilder pb = new ProcessBuilder(command.split(" "));
-            process = pb.start();
-            final int exitCode = process.waitFor();
-            final byte[] stdout = IOUtils.toByteArray(inputStream);
-            final byte[] stderr = IOUtils.toByteArray(errorStream);
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("STDOUT:");
-                LOGGER.debug(new String(stdout));
-                LOGGER.debug("STDERR:");
-                LOGGER.debug(new String(stderr));
-            }
+    public void process(Job job) {
+        final String uuid = job.getUuid();
+        try {
+            // Once the command exits, its result is retrieved without waiting for the next scheduled progress check
+            final ShellExecution execution = new ShellExecution(command, MAX_OUTPUT, "Hakbot-Shell-" + uuid,
+                    () -> JobManager.getInstance().checkProgressNow(uuid));
+            EXECUTIONS.put(uuid, execution);
+            TIMEOUTS.put(uuid, TIMER.schedule(execution::timeout, timeout, TimeUnit.SECONDS));
+        } catch (IOException e) {
+            updateState(job, State.FAILED, "Could not execute job.", e.getMessage());
+        }
+    }
 
-            if (exitCode == 0) {
-                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stdout, "Console-STDOUT-" + job.getUuid() + ".txt");
-            } else {
-                if (stdout.length == 0) {
-                    addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stderr, "Console-STDERR-" + job.getUuid() + ".txt");
-                } else {
-                    addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stdout, "Console-STDOUT-" + job.getUuid() + ".txt");
-                }
-                throw new JobException(exitCode);
+    public boolean isRunning(Job job) {
+        final ShellExecution execution = EXECUTIONS.get(job.getUuid());
+        return execution != null && execution.isRunning();
+    }
+
+    /**
+     * Stores the output of the command as the result of the job. If the command exits with
+     * a non-zero exit code, STDOUT is stored unless it is empty, in which case STDERR is
+     * stored, and the job fails.
+     */
+    public void getResult(Job job) {
+        final ShellExecution execution = EXECUTIONS.remove(job.getUuid());
+        final ScheduledFuture<?> timer = TIMEOUTS.remove(job.getUuid());
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        if (execution == null) {
+            // The controller was restarted while the command was running
+            throw new IllegalStateException("The output of the command is no longer available.");
+        }
+        try {
+            final int exitCode = execution.getExitCode();
+            final boolean useStderr = exitCode != 0 && execution.getStdout().getSize() == 0;
+            final ShellExecution.Drainer output = useStderr ? execution.getStderr() : execution.getStdout();
+            final String filename = "Console-" + (useStderr ? "STDERR-" : "STDOUT-") + job.getUuid() + ".txt";
+            try (InputStream in = Files.newInputStream(output.getFile())) {
+                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), in, filename);
             }
-            return true;
-        } catch (IOException | InterruptedException e) {
-            addProcessingMessage(job, "Could not execute job.");
-            addProcessingMessage(job, e.getMessage());
-        } catch (JobException e) {
-            addProcessingMessage(job, "Job terminated abnormally. Exit code: " + e.getExitCode());
-            addProcessingMessage(job, e.getMessage());
+            if (output.isTruncated()) {
+                addProcessingMessage(job, "Output exceeded " + MAX_OUTPUT + " bytes and was truncated.");
+            }
+            if (execution.isTimedOut()) {
+                throw new IllegalStateException("Job exceeded its timeout and was terminated.");
+            }
+            if (exitCode != 0) {
+                throw new IllegalStateException("Job terminated abnormally. Exit code: " + exitCode);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to store output of job " + job.getUuid() + ": " + e.getMessage());
+            throw new IllegalStateException("Could not store the output of the job.", e);
+        } finally {
+            execution.discard();
         }
-        return false;
     }
 
     public boolean cancel(Job job) {
+        final ShellExecution execution = EXECUTIONS.remove(job.getUuid());
+        final ScheduledFuture<?> timer = TIMEOUTS.remove(job.getUuid());
+        if (timer != null) {
+            timer.cancel(false);
+        }
         updateState(job, State.CANCELED);
-        process.destroy();
-        if (process.isAlive()) {
-            process.destroyForcibly();
+        if (execution == null) {
+            return true;
         }
-        return !process.isAlive();
+        final boolean destroyed = execution.destroy();
+        execution.discard();
+        return destroyed;
+    }
+
+    /**
+     * Returns the maximum number of seconds between progress checks. Checks are mostly
+     * a fallback, as the job is checked as soon as its command exits.
+     */
+    public long getMaxProgressCheckInterval() {
+        return 60;
     }
 
     public String getName() {
@@ -101,4 +168,54 @@ public  class ShellProvider extends BaseProvider implements SynchronousProvider
         return "Executes a shell command or script and captures the output from STDOUT/STDERR.";
     }
 
+    /**
+     * Splits a command into its arguments. Arguments are separated by whitespace, unless
+     * enclosed in single or double quotes. Within double quotes and unquoted arguments,
+     * a backslash escapes the following character.
+     */
+    static List<String> tokenize(String command) {
+        final List<String> tokens = new ArrayList<>();
+        if (command == null) {
+            return tokens;
+        }
+        final StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+        for (int i = 0; i < command.length(); i++) {
+            final char c = command.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '\\' && i + 1 < command.length()) {
+                token.append(command.charAt(++i));
+                inToken = true;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
 }
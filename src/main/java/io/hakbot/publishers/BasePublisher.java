@@ -16,20 +16,34 @@
  */
 package io.hakbot.publishers;
 
+import alpine.Config;
 import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.plugin.BasePlugin;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
+import org.glassfish.jersey.media.multipart.file.StreamDataBodyPart;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.MediaType;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 
 public abstract class BasePublisher extends BasePlugin implements Publisher {
 
     // Setup logging
     private static final Logger LOGGER = Logger.getLogger(BasePublisher.class);
 
+    private static final boolean SPOOL_TO_FILE = Config.getInstance().getPropertyAsBoolean(HakbotConfigKey.PUBLISHER_SPOOL_TO_FILE);
+
     private Job job;
 
     /**
@@ -44,7 +58,8 @@ public abstract class BasePublisher extends BasePlugin implements Publisher {
 
     /**
      * Writes the contents of the JobArtifact to the specified directory. Returns a
-     * File object referencing the result, or null if something goes wrong.
+     * File object referencing the result, or null if something goes wrong. The
+     * contents are streamed from storage and are not held in memory.
      */
     public File getResult(JobArtifact artifact, File directory) {
         try {
@@ -53,7 +68,13 @@ public abstract class BasePublisher extends BasePlugin implements Publisher {
                 filename = job.getUuid() + ".result";
             }
             final File result = new File(directory, filename).getAbsoluteFile();
-            FileUtils.writeByteArrayToFile(result, artifact.getContents());
+            try (InputStream in = openArtifact(artifact)) {
+                if (in == null) {
+                    addProcessingMessage(job, "The result of the job cannot be found");
+                    return null;
+                }
+                FileUtils.copyInputStreamToFile(in, result);
+            }
             addProcessingMessage(job, "Result written to: " + result.getPath());
             return result;
         } catch (IOException e) {
@@ -65,4 +86,88 @@ public abstract class BasePublisher extends BasePlugin implements Publisher {
         return null;
     }
 
+    /**
+     * Creates a multipart body part with the specified name from the contents of the JobArtifact.
+     * The contents are streamed from storage as the request is written and are neither held in
+     * memory nor written to disk. If hakbot.publisher.spool.to.file is enabled, the contents are
+     * first written to a temporary file instead, for remote services which require the length of
+     * the upload in advance. The returned part must be closed once the request has completed.
+     * Returns null if something goes wrong.
+     */
+    public ResultBodyPart openResultBodyPart(JobArtifact artifact, String name) {
+        String filename = (artifact != null) ? artifact.getFilename() : null;
+        if (StringUtils.isEmpty(filename)) {
+            filename = job.getUuid() + ".result";
+        }
+        if (SPOOL_TO_FILE) {
+            final File directory;
+            try {
+                directory = Files.createTempDirectory("hakbot-publish").toFile();
+            } catch (IOException e) {
+                LOGGER.error("Unable to create temporary directory for job: " + job.getUuid());
+                LOGGER.error(e.getMessage());
+                addProcessingMessage(job, "Unable to write result to file");
+                return null;
+            }
+            final File result = getResult(artifact, directory);
+            if (result == null) {
+                FileUtils.deleteQuietly(directory);
+                return null;
+            }
+            return new ResultBodyPart(new FileDataBodyPart(name, result), false, () -> FileUtils.deleteQuietly(directory));
+        }
+        try {
+            final InputStream in = openArtifact(artifact);
+            if (in == null) {
+                addProcessingMessage(job, "The result of the job cannot be found");
+                return null;
+            }
+            final MediaType mediaType = StringUtils.isEmpty(artifact.getMimetype())
+                    ? MediaType.APPLICATION_OCTET_STREAM_TYPE : MediaType.valueOf(artifact.getMimetype());
+            return new ResultBodyPart(new StreamDataBodyPart(name, in, filename, mediaType), true, in);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Unable to read result from job: " + job.getUuid());
+            LOGGER.error(e.getMessage());
+            addProcessingMessage(job, "Unable to read result");
+            addProcessingMessage(job, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * A multipart body part containing the result of a job, along with the stream or temporary
+     * file it is read from.
+     */
+    public static class ResultBodyPart implements Closeable {
+
+        private final FormDataBodyPart bodyPart;
+        private final boolean streaming;
+        private final Closeable resource;
+
+        ResultBodyPart(FormDataBodyPart bodyPart, boolean streaming, Closeable resource) {
+            this.bodyPart = bodyPart;
+            this.streaming = streaming;
+            this.resource = resource;
+        }
+
+        public FormDataBodyPart getBodyPart() {
+            return bodyPart;
+        }
+
+        /**
+         * Prepares the request to send the part. Streamed parts are of unknown length and
+         * are sent using chunked transfer encoding rather than being buffered by the client.
+         */
+        public Invocation.Builder prepare(Invocation.Builder request) {
+            if (streaming) {
+                request.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+            }
+            return request;
+        }
+
+        public void close() throws IOException {
+            resource.close();
+        }
+    }
+
 }
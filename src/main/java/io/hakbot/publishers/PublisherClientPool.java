@@ -0,0 +1,133 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.publishers;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.controller.plugin.RemoteInstance;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PublisherClientPool holds one long-lived JAX-RS client per publisher instance.
+ * Clients are created when the instance is first used and shared by all jobs published
+ * to it, so that provider discovery and TLS handshakes are not repeated on every publish,
+ * and idle connections are kept alive between uploads. The number of uploads sent to an
+ * instance at the same time is limited by the maxConcurrent property of the instance, or
+ * by hakbot.publisher.max.connections if not specified, so that a burst of completed jobs
+ * waits for a connection rather than exhausting sockets. Clients are closed on shutdown.
+ */
+public final class PublisherClientPool {
+
+    // Setup logging
+    private static final Logger LOGGER = Logger.getLogger(PublisherClientPool.class);
+
+    private static final PublisherClientPool INSTANCE = new PublisherClientPool();
+
+    private final int connectTimeout = (int) TimeUnit.SECONDS.toMillis(Config.getInstance().getPropertyAsInt(HakbotConfigKey.PUBLISHER_CONNECT_TIMEOUT));
+    private final int readTimeout = (int) TimeUnit.SECONDS.toMillis(Config.getInstance().getPropertyAsInt(HakbotConfigKey.PUBLISHER_READ_TIMEOUT));
+    private final int maxConnections = Config.getInstance().getPropertyAsInt(HakbotConfigKey.PUBLISHER_MAX_CONNECTIONS);
+
+    private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+    private volatile boolean shutdown;
+
+    /**
+     * An operation performed using the client of an instance.
+     */
+    @FunctionalInterface
+    public interface Operation<T> {
+        T apply(Client client) throws IOException;
+    }
+
+    private PublisherClientPool() { }
+
+    public static PublisherClientPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Performs the operation using the client of the instance. If the maximum number of
+     * concurrent uploads to the instance has been reached, waits until one completes.
+     * Responses must be closed by the operation, so that the connection can be reused.
+     * @param instance the publisher instance
+     * @param operation the operation to perform
+     * @return the result of the operation
+     * @throws IOException if the operation fails or the pool has been shut down
+     */
+    public <T> T execute(RemoteInstance instance, Operation<T> operation) throws IOException {
+        if (shutdown) {
+            throw new IOException("The publisher client pool has been shut down");
+        }
+        final PooledClient pooled = clients.computeIfAbsent(instance.getUrl(), url -> newClient(instance));
+        try {
+            pooled.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + instance.getUrl());
+        }
+        try {
+            return operation.apply(pooled.client);
+        } finally {
+            pooled.permits.release();
+        }
+    }
+
+    private PooledClient newClient(RemoteInstance instance) {
+        final int permits = (instance.getMaxConcurrent() > 0) ? instance.getMaxConcurrent() : maxConnections;
+        LOGGER.info("Creating client for " + instance.getUrl() + " with up to " + permits + " concurrent connections");
+        final ClientConfig config = new ClientConfig()
+                .register(MultiPartFeature.class)
+                .property(ClientProperties.CONNECT_TIMEOUT, connectTimeout)
+                .property(ClientProperties.READ_TIMEOUT, readTimeout);
+        return new PooledClient(ClientBuilder.newBuilder().withConfig(config).build(), permits);
+    }
+
+    /**
+     * Closes all clients. Uploads in progress are aborted.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (PooledClient pooled: clients.values()) {
+            pooled.client.close();
+        }
+        clients.clear();
+    }
+
+    /**
+     * A client along with the permits limiting concurrent uploads to its instance.
+     */
+    private static class PooledClient {
+        private final Client client;
+        private final Semaphore permits;
+
+        private PooledClient(Client client, int permits) {
+            this.client = client;
+            this.permits = new Semaphore(Math.max(1, permits), true);
+        }
+    }
+
+}
@@ -59,7 +59,7 @@ public class FileSystemPublisher extends BasePublisher {
             addProcessingMessage(job, "Cannot write to the specified publishPath.");
             return false;
         }
-        final JobArtifact artifact = getArtifact(job, JobArtifact.Type.PROVIDER_RESULT);
+        final JobArtifact artifact = getArtifactMetadata(job, JobArtifact.Type.PROVIDER_RESULT);
         final File report = getResult(artifact, path);
         return report != null;
     }
@@ -25,6 +25,7 @@ import io.hakbot.publishers.BasePublisher;
 import io.hakbot.util.JsonUtil;
 import javax.json.JsonObject;
 import java.io.File;
+import java.net.URISyntaxException;
 import java.util.Map;
 
 public class RemoteFileSystemPublisher extends BasePublisher {
@@ -50,12 +51,21 @@ public class RemoteFileSystemPublisher extends BasePublisher {
     }
 
     public boolean publish(Job job) {
-        final JobArtifact artifact = getArtifact(job, JobArtifact.Type.PROVIDER_RESULT);
-        final File report = getResult(artifact, new File(System.getProperty("java.io.tmpdir")));
-        if (report != null) {
-            return true;
+        // The remote file system is expected to be mounted and referenced by a file: URL
+        final File path;
+        try {
+            path = new File(remoteInstance.getURL().toURI()).getAbsoluteFile();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            addProcessingMessage(job, "RemoteFileSystem instance URL is not a valid file URL.");
+            return false;
+        }
+        if (!path.isDirectory() || !path.canWrite()) {
+            addProcessingMessage(job, "Cannot write to the RemoteFileSystem instance.");
+            return false;
         }
-        return false;
+        final JobArtifact artifact = getArtifactMetadata(job, JobArtifact.Type.PROVIDER_RESULT);
+        final File report = getResult(artifact, path);
+        return report != null;
     }
 
     public String getName() {
@@ -22,18 +22,15 @@ import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.plugin.RemoteInstance;
 import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
 import io.hakbot.publishers.BasePublisher;
+import io.hakbot.publishers.PublisherClientPool;
 import io.hakbot.util.JsonUtil;
 import org.apache.commons.collections4.MapUtils;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
-import org.glassfish.jersey.media.multipart.MultiPartFeature;
-import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
 import javax.json.JsonObject;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
-import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
@@ -60,25 +57,26 @@ public class KennaSecurityPublisher extends BasePublisher {
     }
 
     public boolean publish(Job job) {
-        final JobArtifact artifact = getArtifact(job, JobArtifact.Type.PROVIDER_RESULT);
-        final File report = getResult(artifact, new File(System.getProperty("java.io.tmpdir")));
-        if (report == null) {
-            return false;
-        }
+        final JobArtifact artifact = getArtifactMetadata(job, JobArtifact.Type.PROVIDER_RESULT);
         boolean success = false;
-        try {
-            final Client client = ClientBuilder.newBuilder().register(MultiPartFeature.class).build();
-            final FileDataBodyPart filePart = new FileDataBodyPart("file", report);
-            final FormDataMultiPart formDataMultiPart = new FormDataMultiPart();
-            final FormDataMultiPart multipart = (FormDataMultiPart) formDataMultiPart.bodyPart(filePart);
-            final WebTarget target = client.target(remoteInstance.getUrl());
-            target.request().header("X-Risk-Token", remoteInstance.getToken());
-            final Response response = target.request().post(Entity.entity(multipart, multipart.getMediaType()));
-            success = response.getStatus() == 200;
-            if (!success) {
-                addProcessingMessage(job, "Failed to upload result to KennaSecurity");
-                addProcessingMessage(job, response.getStatusInfo().getReasonPhrase());
+        try (ResultBodyPart report = openResultBodyPart(artifact, "file")) {
+            if (report == null) {
+                return false;
             }
+            final FormDataMultiPart formDataMultiPart = new FormDataMultiPart();
+            final FormDataMultiPart multipart = (FormDataMultiPart) formDataMultiPart.bodyPart(report.getBodyPart());
+            success = PublisherClientPool.getInstance().execute(remoteInstance, client -> {
+                final WebTarget target = client.target(remoteInstance.getUrl());
+                final Invocation.Builder request = target.request().header("X-Risk-Token", remoteInstance.getToken());
+                try (Response response = report.prepare(request).post(Entity.entity(multipart, multipart.getMediaType()))) {
+                    if (response.getStatus() == 200) {
+                        return true;
+                    }
+                    addProcessingMessage(job, "Failed to upload result to KennaSecurity");
+                    addProcessingMessage(job, response.getStatusInfo().getReasonPhrase());
+                    return false;
+                }
+            });
             formDataMultiPart.close();
         } catch (IOException e) {
             LOGGER.error(e.getMessage());
@@ -22,17 +22,13 @@ import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.plugin.RemoteInstance;
 import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
 import io.hakbot.publishers.BasePublisher;
+import io.hakbot.publishers.PublisherClientPool;
 import io.hakbot.util.JsonUtil;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
-import org.glassfish.jersey.media.multipart.MultiPartFeature;
-import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
 import javax.json.JsonObject;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
-import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
@@ -65,26 +61,26 @@ public class ThreadFixPublisher extends BasePublisher {
     }
 
     public boolean publish(Job job) {
-        final JobArtifact artifact = getArtifact(job, JobArtifact.Type.PROVIDER_RESULT);
-        final File report = getResult(artifact, new File(System.getProperty("java.io.tmpdir")));
-        if (report == null) {
-            return false;
-        }
-
+        final JobArtifact artifact = getArtifactMetadata(job, JobArtifact.Type.PROVIDER_RESULT);
         boolean success = false;
-        try {
-            final Client client = ClientBuilder.newBuilder().register(MultiPartFeature.class).build();
-            final FileDataBodyPart filePart = new FileDataBodyPart("file", report);
-            final FormDataMultiPart formDataMultiPart = new FormDataMultiPart();
-            final FormDataMultiPart multipart = (FormDataMultiPart) formDataMultiPart.bodyPart(filePart);
-            final WebTarget target = client.target(remoteInstance.getUrl() + "/applications/" + appId + "/upload?apiKey=" + remoteInstance.getApiKey());
-            final Response response = target.request().post(Entity.entity(multipart, multipart.getMediaType()));
-            // Depending on the ThreadFix API used, it may send a 200 or a 202 on success.
-            success = (response.getStatus() == 200 || response.getStatus() == 202);
-            if (!success) {
-                addProcessingMessage(job, "Failed to upload result to ThreadFix");
-                addProcessingMessage(job, response.getStatusInfo().getReasonPhrase());
+        try (ResultBodyPart report = openResultBodyPart(artifact, "file")) {
+            if (report == null) {
+                return false;
             }
+            final FormDataMultiPart formDataMultiPart = new FormDataMultiPart();
+            final FormDataMultiPart multipart = (FormDataMultiPart) formDataMultiPart.bodyPart(report.getBodyPart());
+            success = PublisherClientPool.getInstance().execute(remoteInstance, client -> {
+                final WebTarget target = client.target(remoteInstance.getUrl() + "/applications/" + appId + "/upload?apiKey=" + remoteInstance.getApiKey());
+                try (Response response = report.prepare(target.request()).post(Entity.entity(multipart, multipart.getMediaType()))) {
+                    // Depending on the ThreadFix API used, it may send a 200 or a 202 on success.
+                    if (response.getStatus() == 200 || response.getStatus() == 202) {
+                        return true;
+                    }
+                    addProcessingMessage(job, "Failed to upload result to ThreadFix");
+                    addProcessingMessage(job, response.getStatusInfo().getReasonPhrase());
+                    return false;
+                }
+            });
             formDataMultiPart.close();
         } catch (IOException e) {
             LOGGER.error(e.getMessage());
@@ -0,0 +1,113 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.util;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ * An InputStream which reads the GZIP compressed form of the underlying stream.
+ * This is the reverse of GZIPOutputStream, allowing contents to be compressed
+ * while being streamed to a consumer which reads from an InputStream, without
+ * holding the compressed contents in memory. The underlying stream is never
+ * closed, neither once it is exhausted nor when this stream is closed. This
+ * stream should be closed, to release the native resources of the Deflater
+ * if the stream is not read to its end.
+ */
+public class GzipCompressingInputStream extends SequenceInputStream {
+
+    private final Members members;
+
+    public GzipCompressingInputStream(InputStream in) {
+        this(new Members(in));
+    }
+
+    private GzipCompressingInputStream(Members members) {
+        super(members);
+        this.members = members;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            members.deflater.end();
+        }
+    }
+
+    /**
+     * Provides the header, the deflated contents and the trailer of the GZIP member
+     * in turn. The trailer is only created once the contents have been deflated in
+     * their entirety, at which point the checksum and size are known.
+     */
+    private static final class Members implements Enumeration<InputStream> {
+
+        private static final byte[] HEADER = {
+                0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+        };
+
+        private final CRC32 crc = new CRC32();
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final InputStream deflated;
+        private int index;
+
+        private Members(InputStream in) {
+            // SequenceInputStream closes each member once it is exhausted
+            this.deflated = new DeflaterInputStream(new CheckedInputStream(new CloseShieldInputStream(in), crc), deflater);
+        }
+
+        public boolean hasMoreElements() {
+            return index < 3;
+        }
+
+        public InputStream nextElement() {
+            switch (index++) {
+                case 0:
+                    return new ByteArrayInputStream(HEADER);
+                case 1:
+                    return deflated;
+                case 2:
+                    return new ByteArrayInputStream(trailer());
+                default:
+                    throw new NoSuchElementException();
+            }
+        }
+
+        private byte[] trailer() {
+            final long checksum = crc.getValue();
+            final long size = deflater.getBytesRead();
+            deflater.end();
+            final byte[] trailer = new byte[8];
+            for (int i = 0; i < 4; i++) {
+                trailer[i] = (byte) (checksum >> (i * 8));
+                trailer[i + 4] = (byte) (size >> (i * 8));
+            }
+            return trailer;
+        }
+    }
+
+}
@@ -1,8 +1,17 @@
 package net.continuumsecurity.v6;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.ws.rs.client.WebTarget;
 
@@ -17,10 +26,47 @@ import net.continuumsecurity.v6.model.Vulnerability;
  * Created by stephen on 08/02/15.
  */
 public class ReportClientV6 extends SessionClientV6 implements ReportClient {
+	private static final int	DEFAULT_PARALLELISM	= 8;
+	private static final int	PLUGIN_CACHE_SIZE	= 2000;
+	private static final int	SHARED_POOL_SIZE	= 16;
+
+	/**
+	 * Plugin details rarely change and are shared by all clients. The least recently used
+	 * plugins are evicted once the cache is full. A plugin being looked up is cached as an
+	 * incomplete future, so that concurrent lookups of the same plugin share one request.
+	 */
+	private static final Map<String, CompletableFuture<Plugin>> PLUGIN_CACHE = Collections.synchronizedMap(new LinkedHashMap<String, CompletableFuture<Plugin>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Plugin>> eldest) {
+			return size() > PLUGIN_CACHE_SIZE;
+		}
+	});
+
+	/**
+	 * Fetches the vulnerabilities of hosts on behalf of all clients, so that the number of
+	 * concurrent requests to Nessus is bounded however many reports are fetched at once.
+	 */
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(SHARED_POOL_SIZE, runnable -> {
+		Thread thread = new Thread(runnable, "Nessus-ReportClient");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private int parallelism = DEFAULT_PARALLELISM;
+
 	public ReportClientV6(String nessusUrl, boolean acceptAllHostNames) {
 		super(nessusUrl, acceptAllHostNames);
 	}
 
+	/**
+	 * Sets the maximum number of hosts whose vulnerabilities are fetched concurrently.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
 	public List<HostV6> getAllHosts(String scanId) {
 		WebTarget reportTarget = target.path("scans").path(scanId);
 		ReportV6 report = getRequest(reportTarget, ReportV6.class);
@@ -34,8 +80,27 @@ public class ReportClientV6 extends SessionClientV6 implements ReportClient {
 	}
 
 	public Plugin getPlugin(int pluginId) {
-		WebTarget reportTarget = target.path("plugins").path("plugin").path(Integer.toString(pluginId));
-		return getRequest(reportTarget, Plugin.class);
+		String key = nessusUrl + "#" + pluginId;
+		CompletableFuture<Plugin> lookup = new CompletableFuture<Plugin>();
+		CompletableFuture<Plugin> cached = PLUGIN_CACHE.putIfAbsent(key, lookup);
+		if(cached != null){
+			try {
+				return cached.join();
+			} catch(CompletionException e) {
+				throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+			}
+		}
+		try {
+			WebTarget reportTarget = target.path("plugins").path("plugin").path(Integer.toString(pluginId));
+			Plugin plugin = getRequest(reportTarget, Plugin.class);
+			lookup.complete(plugin);
+			return plugin;
+		} catch(RuntimeException e) {
+			// Failed lookups are not cached. Concurrent lookups fail alike, later ones try again.
+			PLUGIN_CACHE.remove(key, lookup);
+			lookup.completeExceptionally(e);
+			throw e;
+		}
 	}
 
 	public HostV6 getHostDetails(int scanId, int hostId) {
@@ -43,19 +108,52 @@ public class ReportClientV6 extends SessionClientV6 implements ReportClient {
 		return getRequest(reportTarget, HostV6.class);
 	}
 
-	public Map<Integer, Issue> getAllIssuesSortedByPluginId(String scanId) {
+	/**
+	 * Fetches the vulnerabilities of up to {@link #setParallelism(int)} hosts concurrently.
+	 * The results are merged in the order of the hosts, so the result does not depend on
+	 * the order in which the requests complete.
+	 */
+	public Map<Integer, Issue> getAllIssuesSortedByPluginId(final String scanId) {
+		List<HostV6> hosts = getAllHosts(scanId);
 		Map<Integer, Issue> issues = new HashMap<Integer, Issue>();
-		for(HostV6 host : getAllHosts(scanId)){
-			for(Vulnerability vuln : getVulnerabilities(scanId, host.getHostId())){
-				Issue issue = issues.get(vuln.getPluginId());
-				if(issue == null){
-					issue = vuln.toIssue(nessusUrl, scanId);
-					issues.put(vuln.getPluginId(), issue);
-				}
-				issue.getHostsV6().add(host);
-				issue.getHostnames().add(host.getHostname());
+		if(hosts == null || hosts.isEmpty())
+			return issues;
+		List<Future<List<Vulnerability>>> results = new ArrayList<Future<List<Vulnerability>>>(hosts.size());
+		try {
+			for(int i = 0; i < hosts.size(); i++){
+				final HostV6 host = hosts.get(i);
+				// Submit the next host only once the host submitted before the window was merged
+				if(i >= parallelism)
+					merge(issues, scanId, hosts.get(i - parallelism), results.get(i - parallelism).get());
+				results.add(EXECUTOR.submit(() -> getVulnerabilities(scanId, host.getHostId())));
+			}
+			for(int i = Math.max(0, hosts.size() - parallelism); i < hosts.size(); i++){
+				merge(issues, scanId, hosts.get(i), results.get(i).get());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while fetching vulnerabilities of scan " + scanId, e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException("Error fetching vulnerabilities of scan " + scanId, e.getCause());
+		} finally {
+			for(Future<List<Vulnerability>> result : results){
+				result.cancel(true);
 			}
 		}
 		return issues;
 	}
+
+	private void merge(Map<Integer, Issue> issues, String scanId, HostV6 host, List<Vulnerability> vulnerabilities) {
+		if(vulnerabilities == null)
+			return;
+		for(Vulnerability vuln : vulnerabilities){
+			Issue issue = issues.get(vuln.getPluginId());
+			if(issue == null){
+				issue = vuln.toIssue(nessusUrl, scanId);
+				issues.put(vuln.getPluginId(), issue);
+			}
+			issue.getHostsV6().add(host);
+			issue.getHostnames().add(host.getHostname());
+		}
+	}
 }
\ No newline at end of file
@@ -1,9 +1,6 @@
 package net.continuumsecurity.v6;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
@@ -28,6 +25,7 @@ import net.continuumsecurity.v6.model.Settings;
  * Created by stephen on 07/02/15.
  */
 public class ScanClientV6 extends SessionClientV6 implements ScanClient {
+
 	public ScanClientV6(String nessusUrl, boolean acceptAllHostNames) {
 		super(nessusUrl, acceptAllHostNames);
 	}
@@ -108,57 +106,58 @@ public class ScanClientV6 extends SessionClientV6 implements ScanClient {
 		return postRequest(target, exportScanRequest, ExportV6.class);
 	}
 
-	public File download(int scanId, ExportV6 export, Path outputPath) throws IOException {
-		WebTarget target = this.target.path("scans").path(Integer.toString(scanId)).path("export").path(export.getFile()).path("download");
-		try { Thread.sleep(5000); } catch (InterruptedException e) {}
-		Response response = getRequest(target, Response.class, MediaType.APPLICATION_OCTET_STREAM_TYPE);
-		String fileName = extractFileName(response);
-		InputStream inputStream = (InputStream) response.getEntity();
-		File targetFile = Files.createFile(outputPath.resolve(Paths.get(fileName))).toFile();
-		writeDownloadedFile(inputStream, targetFile);
-		return targetFile;
-	}
-	public File download(int scanId, ExportFormat exportFormat, Path outputPath) throws IOException {
-		return download(scanId, export(scanId, exportFormat), outputPath);
+	/**
+	 * Checks once whether Nessus has finished generating the export, without waiting for it.
+	 */
+	public boolean isExportReady(int scanId, String file) {
+		WebTarget target = this.target.path("scans").path(Integer.toString(scanId)).path("export").path(file).path("status");
+		String response = getRequest(target, String.class);
+		JsonReader jsonReader = Json.createReader(new StringReader(response));
+		JsonObject status = jsonReader.readObject();
+		return "ready".equalsIgnoreCase(status.getString("status", null));
+	}
+
+	/**
+	 * Opens a stream to an export which is ready. The export is read directly from the
+	 * response and must be closed by the caller.
+	 */
+	public InputStream openDownload(int scanId, String file) throws IOException {
+		WebTarget target = this.target.path("scans").path(Integer.toString(scanId)).path("export").path(file).path("download");
+		Response response = checkAuthorized(getRequest(target, Response.class, MediaType.APPLICATION_OCTET_STREAM_TYPE));
+		if(response.getStatus() != 200){
+			response.close();
+			throw new IOException("Error downloading export of scan " + scanId + ". Received status code: " + response.getStatus());
+		}
+		return response.readEntity(InputStream.class);
 	}
 
 	public void launchScan(int id) {
 		WebTarget scanTarget = target.path("scans").path(Integer.toString(id)).path("launch");
-		Response response = postRequest(scanTarget, "", Response.class);
+		Response response = checkAuthorized(postRequest(scanTarget, "", Response.class));
 		if(response.getStatus() != 200)
 			throw new RuntimeException("Error launching scan with ID: " + id + ": " + response.getStatusInfo().getReasonPhrase());
 	}
 
+	/**
+	 * Stops the scan. Scans which are not running are left as they are.
+	 */
+	public void stopScan(int id) {
+		WebTarget scanTarget = target.path("scans").path(Integer.toString(id)).path("stop");
+		Response response = checkAuthorized(postRequest(scanTarget, "", Response.class));
+		response.close();
+		if(response.getStatus() != 200 && response.getStatus() != 409)
+			throw new RuntimeException("Error stopping scan with ID: " + id + ": " + response.getStatusInfo().getReasonPhrase());
+	}
+
 	public boolean isScanRunning(String scanId) {
 		try{
-			if("completed".equalsIgnoreCase(getScanStatus(scanId)))
-				return false;
-			if("running".equalsIgnoreCase(getScanStatus(scanId)) || "paused".equalsIgnoreCase(getScanStatus(scanId)))
-				return true;
+			return isRunningStatus(getScanStatus(scanId));
 		}catch(ScanNotFoundException e){
 			return false;
 		}
-		return false;
-	}
-
-	private void writeDownloadedFile(InputStream inputStream, File targetFile) throws IOException {
-		OutputStream outStream = null;
-		try {
-			outStream = new FileOutputStream(targetFile);
-			byte[] buffer = new byte[8 * 1024];
-			int bytesRead;
-			while ((bytesRead = inputStream.read(buffer)) != -1) {
-				outStream.write(buffer, 0, bytesRead);
-			}
-		} finally {
-			if (outStream != null) {
-				outStream.close();
-			}
-		}
 	}
 
-	private String extractFileName(Response response) {
-		String contentDisposition = response.getHeaderString(HttpHeaders.CONTENT_DISPOSITION);
-		return contentDisposition.substring(contentDisposition.indexOf("filename=") + "filename=\\".length(), contentDisposition.length() - 1);
+	public static boolean isRunningStatus(String status) {
+		return "running".equalsIgnoreCase(status) || "paused".equalsIgnoreCase(status);
 	}
 }
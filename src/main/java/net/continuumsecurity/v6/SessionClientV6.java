@@ -3,6 +3,7 @@ package net.continuumsecurity.v6;
 import java.util.logging.Logger;
 
 import javax.security.auth.login.LoginException;
+import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.client.*;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
@@ -23,8 +24,21 @@ public class SessionClientV6 implements SessionClient {
 	private static final String	APIKEY_HEADER	= "X-ApiKeys";
 	private static Logger		log				= Logger.getLogger(ScanClientV6.class.toString());
 	protected String			nessusUrl;
-	private String authHeader;
-	private String authParam;
+	private volatile Auth		auth;
+
+	/**
+	 * The header used to authenticate requests. Clients may be shared by several threads,
+	 * so the header and its value are replaced together when the client logs in again.
+	 */
+	private static final class Auth {
+		private final String header;
+		private final String param;
+
+		private Auth(String header, String param) {
+			this.header = header;
+			this.param = param;
+		}
+	}
 
 	public SessionClientV6(String nessusUrl, boolean acceptAllHostNames) {
 		this.nessusUrl = nessusUrl;
@@ -32,7 +46,7 @@ public class SessionClientV6 implements SessionClient {
 		target = client.target(nessusUrl);
 	}
 
-	public void login(String username, String password) throws LoginException {
+	public synchronized void login(String username, String password) throws LoginException {
 		WebTarget loginTarget = target.path("/session");
 		Form form = new Form();
 		form.param("username", username);
@@ -41,26 +55,31 @@ public class SessionClientV6 implements SessionClient {
 		token = reply.getToken();
 		if(token == null || token.length() == 0)
 			throw new LoginException("Error logging in");
-		authHeader = COOKIE_HEADER;
-		authParam = "token=" + token;
+		auth = new Auth(COOKIE_HEADER, "token=" + token);
 		log.info("Login OK.  Token: " + token);
 	}
 
-	public void setApiKeys(final String accessKey, final String secretKey) {
-		authHeader = APIKEY_HEADER;
-		authParam = "accessKey=" + accessKey + "; secretKey=" + secretKey;
+	public synchronized void setApiKeys(final String accessKey, final String secretKey) {
+		auth = new Auth(APIKEY_HEADER, "accessKey=" + accessKey + "; secretKey=" + secretKey);
 	}
 
 	public void logout() {
 		WebTarget logoutTarget = target.path("/session");
-		Response response = logoutTarget.request(MediaType.APPLICATION_JSON_TYPE).header(authHeader, authParam).delete(Response.class);
+		Response response = authorize(logoutTarget.request(MediaType.APPLICATION_JSON_TYPE)).delete(Response.class);
 		if(response.getStatus() != 200)
 			throw new RuntimeException("Error logging out. Received status code: " + response.getStatus() + " " + response.getStatusInfo().getReasonPhrase());
 		log.info("Logout: " + response.getStatusInfo().getReasonPhrase());
 	}
 
+	/**
+	 * Releases the connections of the client. The client cannot be used afterwards.
+	 */
+	public void close() {
+		client.close();
+	}
+
 	protected <T> T postRequest(WebTarget target, Object object, Class<T> returnType) {
-		return target.request(MediaType.APPLICATION_JSON_TYPE).header(authHeader, authParam).post(Entity.entity(object, MediaType.APPLICATION_JSON_TYPE), returnType);
+		return authorize(target.request(MediaType.APPLICATION_JSON_TYPE)).post(Entity.entity(object, MediaType.APPLICATION_JSON_TYPE), returnType);
 	}
 
 	protected <T> T getRequest(WebTarget target, Class<T> returnType) {
@@ -68,6 +87,23 @@ public class SessionClientV6 implements SessionClient {
 	}
 
 	protected <T> T getRequest(WebTarget target, Class<T> returnType, MediaType mediaType) {
-		return target.request(mediaType).header(authHeader, authParam).get(returnType);
+		return authorize(target.request(mediaType)).get(returnType);
+	}
+
+	private Invocation.Builder authorize(Invocation.Builder request) {
+		final Auth current = auth;
+		return (current != null) ? request.header(current.header, current.param) : request;
+	}
+
+	/**
+	 * Throws NotAuthorizedException if Nessus rejected the authentication of a request whose
+	 * raw response was requested, as is done for typed responses.
+	 */
+	protected static Response checkAuthorized(Response response) {
+		if(response.getStatus() == Response.Status.UNAUTHORIZED.getStatusCode()){
+			response.close();
+			throw new NotAuthorizedException(response);
+		}
+		return response;
 	}
 }
@@ -0,0 +1,104 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class FileSystemArtifactStoreTest {
+
+    private static final byte[] CONTENTS = "hakbot".getBytes(StandardCharsets.UTF_8);
+
+    private File directory;
+    private FileSystemArtifactStore store;
+
+    @Before
+    public void before() throws IOException {
+        directory = Files.createTempDirectory("artifacts").toFile();
+        store = new FileSystemArtifactStore(directory);
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testStoreAndRead() throws IOException {
+        final String digest = store.store(new ByteArrayInputStream(CONTENTS));
+        Assert.assertTrue(digest.matches("[0-9a-f]{64}"));
+        Assert.assertTrue(store.contains(digest));
+        Assert.assertEquals(CONTENTS.length, store.size(digest));
+        try (InputStream in = store.open(digest)) {
+            Assert.assertArrayEquals(CONTENTS, IOUtils.toByteArray(in));
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(CONTENTS.length, store.transferTo(digest, Channels.newChannel(out)));
+        Assert.assertArrayEquals(CONTENTS, out.toByteArray());
+        // No temporary files are left behind
+        Assert.assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void testIdenticalContentsStoredOnce() throws IOException {
+        final String first = store.store(new ByteArrayInputStream(CONTENTS));
+        final String second = store.store(new ByteArrayInputStream(CONTENTS));
+        Assert.assertEquals(first, second);
+        Assert.assertNotEquals(first, store.store(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void testPinnedContentsNotDeleted() throws IOException {
+        final String digest = store.store(new ByteArrayInputStream(CONTENTS));
+        store.store(new ByteArrayInputStream(CONTENTS));
+        Assert.assertFalse(store.deleteUnreferenced(digest, () -> false));
+        store.release(digest);
+        // Still pinned by the second store
+        Assert.assertFalse(store.deleteUnreferenced(digest, () -> false));
+        store.release(digest);
+        Assert.assertTrue(store.contains(digest));
+    }
+
+    @Test
+    public void testDeleteUnreferenced() throws IOException {
+        final String digest = store.store(new ByteArrayInputStream(CONTENTS));
+        store.release(digest);
+        Assert.assertFalse(store.deleteUnreferenced(digest, () -> true));
+        Assert.assertTrue(store.contains(digest));
+        Assert.assertTrue(store.deleteUnreferenced(digest, () -> false));
+        Assert.assertFalse(store.contains(digest));
+        Assert.assertFalse(store.deleteUnreferenced(digest, () -> false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDigest() throws IOException {
+        store.open("../../etc/passwd");
+    }
+
+}
@@ -22,6 +22,11 @@ import org.junit.Test;
 import javax.json.JsonArray;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
+import javax.ws.rs.client.WebTarget;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 public class JobResourceTest extends BaseResourceTest {
 
@@ -37,6 +42,48 @@ public class JobResourceTest extends BaseResourceTest {
         }
     }
 
+    @Test
+    public void testPaginatedJobs() {
+        Set<String> uuids = new HashSet<>();
+        String after = null;
+        int[] expectedSizes = {4, 4, 2, 0};
+        for (int expectedSize : expectedSizes) {
+            WebTarget target = target(Target.JOB.target).queryParam("limit", 4);
+            if (after != null) {
+                target = target.queryParam("after", after);
+            }
+            JsonArray jsonResponse = JsonUtil.toJsonArray(target
+                    .request()
+                    .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                    .get(String.class));
+            Assert.assertEquals(expectedSize, jsonResponse.size());
+            for (JsonObject jsonObject : jsonResponse.getValuesAs(JsonObject.class)) {
+                Assert.assertTrue(uuids.add(jsonObject.getString("uuid")));
+                Assert.assertFalse(jsonObject.containsKey("message"));
+                after = jsonObject.getString("uuid");
+            }
+        }
+        Assert.assertEquals(10, uuids.size());
+    }
+
+    @Test
+    public void testFilteredJobs() {
+        JsonArray jsonResponse = JsonUtil.toJsonArray(target(Target.JOB.target)
+                .queryParam("state", "Created")
+                .queryParam("provider", "io.hakbot.providers.shell.ShellProvider")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .get(String.class));
+        Assert.assertEquals(10, jsonResponse.size());
+
+        jsonResponse = JsonUtil.toJsonArray(target(Target.JOB.target)
+                .queryParam("state", "Completed")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .get(String.class));
+        Assert.assertEquals(0, jsonResponse.size());
+    }
+
     @Test
     public void testJobByUuid() {
         JsonObject jsonResponse = JsonUtil.toJsonObject(target(Target.JOB.target)
@@ -56,4 +103,17 @@ public class JobResourceTest extends BaseResourceTest {
         Assert.assertTrue(jsonResponse.getInt("startedByApiKeyId") > 0);
     }
 
+    @Test
+    public void testAcceptsEncoding() {
+        Assert.assertTrue(JobResource.acceptsEncoding(Collections.singletonList("gzip"), "gzip"));
+        Assert.assertTrue(JobResource.acceptsEncoding(Collections.singletonList("deflate, GZIP"), "gzip"));
+        Assert.assertTrue(JobResource.acceptsEncoding(Collections.singletonList("gzip;q=0.5, br"), "gzip"));
+        Assert.assertTrue(JobResource.acceptsEncoding(Arrays.asList("br", "gzip; q=1.0"), "gzip"));
+        Assert.assertFalse(JobResource.acceptsEncoding(null, "gzip"));
+        Assert.assertFalse(JobResource.acceptsEncoding(Collections.singletonList("deflate, br"), "gzip"));
+        Assert.assertFalse(JobResource.acceptsEncoding(Collections.singletonList("x-gzip"), "gzip"));
+        Assert.assertFalse(JobResource.acceptsEncoding(Collections.singletonList("gzip;q=0"), "gzip"));
+        Assert.assertFalse(JobResource.acceptsEncoding(Collections.singletonList("br, gzip; q=0.000"), "gzip"));
+    }
+
 }
@@ -0,0 +1,151 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import io.hakbot.controller.plugin.RemoteInstance;
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class AdmissionControllerTest {
+
+    private static final String INSTANCE_1 = "io.hakbot.providers.nessus.NessusProvider#scanner1";
+    private static final String INSTANCE_2 = "io.hakbot.providers.nessus.NessusProvider#scanner2";
+    private static final String PROVIDER = "io.hakbot.providers.nessus.NessusProvider";
+    private static final String OTHER_PROVIDER = "io.hakbot.providers.appspider.AppSpiderProvider#scanner1";
+
+    @Test
+    public void testAcquireUpToLimit() {
+        final AdmissionController controller = new AdmissionController();
+        Assert.assertTrue(controller.acquire("job1", INSTANCE_1, 2));
+        Assert.assertTrue(controller.acquire("job2", INSTANCE_1, 2));
+        Assert.assertFalse(controller.acquire("job3", INSTANCE_1, 2));
+        Assert.assertEquals(2, controller.getActiveCount(INSTANCE_1));
+        Assert.assertTrue(controller.isHolding("job1"));
+        Assert.assertFalse(controller.isHolding("job3"));
+        // Jobs which already hold a slot are admitted again
+        Assert.assertTrue(controller.acquire("job1", INSTANCE_1, 2));
+        Assert.assertEquals(2, controller.getActiveCount(INSTANCE_1));
+        // Other instances have their own slots
+        Assert.assertTrue(controller.acquire("job4", INSTANCE_2, 2));
+    }
+
+    @Test
+    public void testUnlimited() {
+        final AdmissionController controller = new AdmissionController();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(controller.acquire("job" + i, INSTANCE_1, 0));
+        }
+        Assert.assertEquals(100, controller.getActiveCount(INSTANCE_1));
+    }
+
+    @Test
+    public void testReleaseReturnsWaitersOfProvider() {
+        final AdmissionController controller = new AdmissionController();
+        Assert.assertTrue(controller.acquire("job1", INSTANCE_1, 1));
+        Assert.assertTrue(controller.acquire("job2", INSTANCE_2, 1));
+        Assert.assertTrue(controller.acquire("job3", OTHER_PROVIDER, 1));
+        Assert.assertFalse(controller.acquire("job4", INSTANCE_1, 1));
+        Assert.assertFalse(controller.acquire("job5", INSTANCE_2, 1));
+        Assert.assertFalse(controller.acquire("job6", OTHER_PROVIDER, 1));
+        Assert.assertFalse(controller.isSlotAvailable("job4"));
+
+        final List<String> waiting = controller.release("job1");
+        Assert.assertEquals(new HashSet<>(Arrays.asList("job4", "job5")), new HashSet<>(waiting));
+        Assert.assertFalse(controller.isHolding("job1"));
+        Assert.assertEquals(0, controller.getActiveCount(INSTANCE_1));
+        Assert.assertTrue(controller.isSlotAvailable("job4"));
+        Assert.assertFalse(controller.isSlotAvailable("job5"));
+
+        Assert.assertTrue(controller.acquire("job4", INSTANCE_1, 1));
+        Assert.assertFalse(controller.isSlotAvailable("job4"));
+        // Releasing a job which holds no slot has no effect
+        Assert.assertTrue(controller.release("job1").isEmpty());
+    }
+
+    @Test
+    public void testStopWaiting() {
+        final AdmissionController controller = new AdmissionController();
+        Assert.assertTrue(controller.acquire("job1", INSTANCE_1, 1));
+        Assert.assertFalse(controller.acquire("job2", INSTANCE_1, 1));
+        controller.stopWaiting("job2");
+        Assert.assertTrue(controller.release("job1").isEmpty());
+    }
+
+    @Test
+    public void testRetainAll() {
+        final AdmissionController controller = new AdmissionController();
+        Assert.assertTrue(controller.acquire("job1", INSTANCE_1, 1));
+        Assert.assertTrue(controller.acquire("job2", INSTANCE_2, 1));
+        Assert.assertFalse(controller.acquire("job3", INSTANCE_1, 1));
+        controller.retainAll(new HashSet<>(Arrays.asList("job2")));
+        Assert.assertFalse(controller.isHolding("job1"));
+        Assert.assertTrue(controller.isHolding("job2"));
+        Assert.assertFalse(controller.isSlotAvailable("job3"));
+        Assert.assertEquals(0, controller.getActiveCount(INSTANCE_1));
+    }
+
+    @Test
+    public void testReadmittedOnOtherInstance() {
+        final AdmissionController controller = new AdmissionController();
+        Assert.assertTrue(controller.acquire("job1", PROVIDER, () -> instance("scanner1", 1)));
+        Assert.assertFalse(controller.acquire("job2", PROVIDER, () -> instance("scanner1", 1)));
+        // The job becomes unavailable and is initialized again with another instance
+        Assert.assertTrue(controller.release("job2").isEmpty());
+        controller.forget("job2");
+        Assert.assertTrue(controller.acquire("job2", PROVIDER, () -> instance("scanner2", 1)));
+        Assert.assertEquals(1, controller.getActiveCount(INSTANCE_1));
+        Assert.assertEquals(1, controller.getActiveCount(INSTANCE_2));
+        Assert.assertFalse(controller.isSlotAvailable("job2"));
+        // The job no longer waits for, nor is charged to, the instance it was first given
+        Assert.assertTrue(controller.release("job1").isEmpty());
+        Assert.assertEquals(0, controller.getActiveCount(INSTANCE_1));
+        Assert.assertEquals(1, controller.getActiveCount(INSTANCE_2));
+    }
+
+    @Test
+    public void testWaitsForOneInstance() {
+        final AdmissionController controller = new AdmissionController();
+        Assert.assertTrue(controller.acquire("job1", INSTANCE_1, 1));
+        Assert.assertTrue(controller.acquire("job2", INSTANCE_2, 1));
+        Assert.assertFalse(controller.acquire("job3", INSTANCE_1, 1));
+        Assert.assertFalse(controller.acquire("job3", INSTANCE_2, 1));
+        controller.release("job1");
+        Assert.assertFalse(controller.isSlotAvailable("job3"));
+    }
+
+    @Test
+    public void testKey() {
+        final RemoteInstance instance = new RemoteInstance();
+        instance.setUrl("https://scanner1.example.com:8834");
+        Assert.assertEquals("io.hakbot.providers.nessus.NessusProvider#https://scanner1.example.com:8834",
+                AdmissionController.getKey("io.hakbot.providers.nessus.NessusProvider", instance));
+        instance.setAlias("scanner1");
+        Assert.assertEquals(INSTANCE_1, AdmissionController.getKey("io.hakbot.providers.nessus.NessusProvider", instance));
+    }
+
+    private static RemoteInstance instance(String alias, int maxConcurrent) {
+        final RemoteInstance instance = new RemoteInstance();
+        instance.setAlias(alias);
+        instance.setUrl("https://" + alias + ".example.com:8834");
+        instance.setMaxConcurrent(maxConcurrent);
+        return instance;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.concurrent.TimeUnit;
+
+public class JobManagerTest {
+
+    @Test
+    public void testBackoffDoublesUpToMaximum() {
+        JobManager.ProgressCheck check = new JobManager.ProgressCheck("job", 30000, 30000, 200000);
+        long[] expected = {60000, 120000, 200000, 200000};
+        for (long interval : expected) {
+            check = check.next();
+            Assert.assertEquals(interval, check.interval);
+            Assert.assertEquals(200000, check.maxInterval);
+            Assert.assertTrue(check.getRemainingMillis() <= interval);
+            Assert.assertTrue(check.getRemainingMillis() > interval - 5000);
+        }
+    }
+
+    @Test
+    public void testMaxInterval() {
+        Assert.assertEquals(900000, JobManager.ProgressCheck.getMaxInterval(900000, -1));
+        Assert.assertEquals(900000, JobManager.ProgressCheck.getMaxInterval(900000, 0));
+        Assert.assertEquals(300000, JobManager.ProgressCheck.getMaxInterval(900000, 300));
+        // Providers may not exceed the system maximum
+        Assert.assertEquals(900000, JobManager.ProgressCheck.getMaxInterval(900000, 3600));
+    }
+
+    @Test
+    public void testNextDelay() {
+        // Without an estimate, the check already scheduled is kept
+        Assert.assertEquals(20000, JobManager.ProgressCheck.getNextDelay(20000, -1, 300000));
+        Assert.assertEquals(300000, JobManager.ProgressCheck.getNextDelay(600000, -1, 300000));
+        // With an estimate, the next check is due once the job is expected to complete
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(120), JobManager.ProgressCheck.getNextDelay(20000, 120, 300000));
+        Assert.assertEquals(300000, JobManager.ProgressCheck.getNextDelay(20000, 3600, 300000));
+    }
+
+    @Test
+    public void testOrdering() {
+        final JobManager.ProgressCheck sooner = new JobManager.ProgressCheck("a", 1000, 1000, 10000);
+        final JobManager.ProgressCheck later = new JobManager.ProgressCheck("b", 60000, 1000, 10000);
+        Assert.assertTrue(sooner.compareTo(later) < 0);
+        Assert.assertTrue(later.compareTo(sooner) > 0);
+        Assert.assertTrue(later.getDelay(TimeUnit.SECONDS) > 50);
+    }
+
+}
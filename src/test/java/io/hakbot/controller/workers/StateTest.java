@@ -0,0 +1,100 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateTest {
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals(State.IN_PROGRESS, State.parse("In Progress"));
+        Assert.assertEquals(State.IN_PROGRESS, State.parse("in progress"));
+        Assert.assertEquals(State.IN_PROGRESS, State.parse("IN_PROGRESS"));
+        Assert.assertEquals(State.CANCELED, State.parse("Canceled"));
+        for (State state : State.values()) {
+            Assert.assertEquals(state, State.parse(state.getValue()));
+            Assert.assertEquals(state, State.parse(state.name()));
+        }
+        Assert.assertNull(State.parse("Running"));
+        Assert.assertNull(State.parse(""));
+        Assert.assertNull(State.parse(null));
+    }
+
+    @Test
+    public void testTransitions() {
+        Assert.assertTrue(State.CREATED.canTransitionTo(State.IN_QUEUE));
+        Assert.assertTrue(State.CREATED.canTransitionTo(State.IN_PROGRESS));
+        Assert.assertTrue(State.IN_QUEUE.canTransitionTo(State.IN_PROGRESS));
+        Assert.assertTrue(State.IN_QUEUE.canTransitionTo(State.UNAVAILABLE));
+        Assert.assertTrue(State.UNAVAILABLE.canTransitionTo(State.IN_QUEUE));
+        Assert.assertTrue(State.IN_PROGRESS.canTransitionTo(State.COMPLETED));
+        Assert.assertTrue(State.IN_PROGRESS.canTransitionTo(State.UNAVAILABLE));
+        Assert.assertTrue(State.COMPLETED.canTransitionTo(State.PUBLISHED));
+        Assert.assertTrue(State.COMPLETED.canTransitionTo(State.FAILED));
+        for (State state : State.values()) {
+            if (!state.isFinal()) {
+                Assert.assertTrue(state.canTransitionTo(State.FAILED));
+            }
+        }
+    }
+
+    @Test
+    public void testIllegalTransitions() {
+        Assert.assertFalse(State.CREATED.canTransitionTo(State.COMPLETED));
+        Assert.assertFalse(State.IN_QUEUE.canTransitionTo(State.CREATED));
+        Assert.assertFalse(State.IN_PROGRESS.canTransitionTo(State.IN_QUEUE));
+        Assert.assertFalse(State.IN_PROGRESS.canTransitionTo(State.PUBLISHED));
+        Assert.assertFalse(State.COMPLETED.canTransitionTo(State.CANCELED));
+        Assert.assertFalse(State.COMPLETED.canTransitionTo(State.IN_PROGRESS));
+        for (State state : State.values()) {
+            Assert.assertFalse(state.canTransitionTo(state));
+            Assert.assertFalse(state.canTransitionTo(null));
+        }
+    }
+
+    @Test
+    public void testFinalStates() {
+        Assert.assertTrue(State.PUBLISHED.isFinal());
+        Assert.assertTrue(State.CANCELED.isFinal());
+        Assert.assertTrue(State.FAILED.isFinal());
+        Assert.assertFalse(State.CREATED.isFinal());
+        Assert.assertFalse(State.COMPLETED.isFinal());
+        for (State state : State.values()) {
+            if (state.isFinal()) {
+                for (State next : State.values()) {
+                    Assert.assertFalse(state.canTransitionTo(next));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCanReach() {
+        Assert.assertTrue(State.CREATED.canReach(State.PUBLISHED));
+        Assert.assertTrue(State.IN_QUEUE.canReach(State.COMPLETED));
+        Assert.assertTrue(State.UNAVAILABLE.canReach(State.IN_QUEUE));
+        Assert.assertTrue(State.IN_QUEUE.canReach(State.IN_QUEUE));
+        Assert.assertTrue(State.IN_PROGRESS.canReach(State.IN_QUEUE));
+        Assert.assertFalse(State.COMPLETED.canReach(State.IN_QUEUE));
+        Assert.assertFalse(State.COMPLETED.canReach(State.CANCELED));
+        Assert.assertFalse(State.CANCELED.canReach(State.COMPLETED));
+        Assert.assertFalse(State.FAILED.canReach(State.FAILED));
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class GzipCompressingInputStreamTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final byte[] contents = new byte[1024 * 1024];
+        final Random random = new Random(42);
+        for (int i = 0; i < contents.length; i++) {
+            // Compressible, but not trivially so
+            contents[i] = (byte) ((i % 97 == 0) ? random.nextInt() : i % 13);
+        }
+        final byte[] compressed = IOUtils.toByteArray(new GzipCompressingInputStream(new ByteArrayInputStream(contents)));
+        Assert.assertTrue(compressed.length < contents.length);
+        Assert.assertArrayEquals(contents, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final byte[] compressed = IOUtils.toByteArray(new GzipCompressingInputStream(new ByteArrayInputStream(new byte[0])));
+        Assert.assertArrayEquals(new byte[0], IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void testUnderlyingStreamNotClosed() throws IOException {
+        final CloseTrackingInputStream in = new CloseTrackingInputStream(new byte[4096]);
+        try (InputStream gzip = new GzipCompressingInputStream(in)) {
+            IOUtils.toByteArray(gzip);
+            Assert.assertFalse(in.closed);
+        }
+        Assert.assertFalse(in.closed);
+    }
+
+    @Test
+    public void testCloseBeforeExhausted() throws IOException {
+        final CloseTrackingInputStream in = new CloseTrackingInputStream(new byte[4096]);
+        final InputStream gzip = new GzipCompressingInputStream(in);
+        Assert.assertEquals(0x1f, gzip.read());
+        gzip.close();
+        gzip.close();
+        Assert.assertFalse(in.closed);
+    }
+
+    private static class CloseTrackingInputStream extends ByteArrayInputStream {
+        private boolean closed;
+
+        CloseTrackingInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+}